@@ -0,0 +1,71 @@
+package com.example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Classifies the lines of a typical diagram with {@link LineClassifier} and, as a baseline,
+ * with the regular expressions the parser used before it.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LineClassificationBenchmark {
+    private static final Pattern STEP_PATTERN = Pattern.compile("'\\s*@step\\s+(\\{.*\\})");
+    private static final Pattern[] DECLARATION_PATTERNS = {
+            Pattern.compile("(?i)^\\s*participant\\s+.*"),
+            Pattern.compile("(?i)^\\s*actor\\s+.*"),
+            Pattern.compile("(?i)^\\s*!include\\s+.*"),
+            Pattern.compile("(?i)^\\s*participant\\s+\".*\"\\s+as\\s+.*"),
+            Pattern.compile("(?i)^\\s*actor\\s+\".*\"\\s+as\\s+.*")
+    };
+
+    private String[] lines;
+
+    @Setup
+    public void setUp() {
+        lines = new DiagramCorpusGenerator().steps(50).messagesPerStep(4).noteDensity(0.2).generateSource(0).split("\n");
+    }
+
+    @Benchmark
+    public void classifier(Blackhole blackhole) {
+        for (String line : lines) {
+            blackhole.consume(LineClassifier.classify(line));
+            blackhole.consume(LineClassifier.isParticipantDeclaration(line));
+        }
+    }
+
+    @Benchmark
+    public void regexBaseline(Blackhole blackhole) {
+        for (String line : lines) {
+            boolean marker = STEP_PATTERN.matcher(line).find();
+            boolean declaration = false;
+            if (!marker) {
+                for (Pattern pattern : DECLARATION_PATTERNS) {
+                    if (pattern.matcher(line).matches()) {
+                        declaration = true;
+                        break;
+                    }
+                }
+            }
+            blackhole.consume(marker || declaration || line.trim().isEmpty());
+            String trimmed = line.trim().toLowerCase();
+            blackhole.consume(trimmed.startsWith("participant ") || trimmed.startsWith("actor "));
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.example;
+
+import com.google.gson.Gson;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Extracts step marker metadata with {@link StepMetadataExtractor} and, as a baseline,
+ * by parsing the marker into a Gson map.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MetadataExtractionBenchmark {
+    private static final String MARKER = "' @step {\"name\": \"Step 12: Submit credentials\", \"newPage\": false}";
+    private static final String MARKER_JSON = "{\"name\": \"Step 12: Submit credentials\", \"newPage\": false}";
+
+    private final StepMetadataExtractor extractor = new StepMetadataExtractor();
+    private final Gson gson = new Gson();
+
+    @Benchmark
+    public void extractor(Blackhole blackhole) {
+        StepMetadata metadata = extractor.extractMetadata(MARKER);
+        blackhole.consume(metadata.getName());
+        blackhole.consume(metadata.isNewPage());
+    }
+
+    @Benchmark
+    public Map<String, Object> extractorWithAttributes() {
+        return extractor.extractMetadata(MARKER).getAttributes();
+    }
+
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public void gsonMapBaseline(Blackhole blackhole) {
+        Map<String, Object> metadata = gson.fromJson(MARKER_JSON, Map.class);
+        blackhole.consume(metadata.containsKey("name") ? metadata.get("name").toString() : "Unnamed Step");
+        blackhole.consume(metadata.containsKey("newPage") && Boolean.parseBoolean(metadata.get("newPage").toString()));
+    }
+}
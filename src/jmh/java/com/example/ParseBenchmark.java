@@ -0,0 +1,60 @@
+package com.example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parses whole PlantUML files and the same sources held in memory, at increasing diagram sizes.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParseBenchmark {
+    @Param({"100", "2000"})
+    public int stepCount;
+
+    private String source;
+    private File file;
+
+    @Setup
+    public void setUp() throws IOException {
+        source = new DiagramCorpusGenerator().steps(stepCount).messagesPerStep(4).noteDensity(0.1).generateSource(0);
+        file = File.createTempFile("parse-benchmark", ".puml");
+        Files.writeString(file.toPath(), source, StandardCharsets.UTF_8);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file.toPath());
+    }
+
+    @Benchmark
+    public List<Step> parseFile() throws IOException {
+        return new StepParser().parseFile(file);
+    }
+
+    @Benchmark
+    public List<Step> parseString() throws IOException {
+        return new StepParser().parseString(source);
+    }
+}
@@ -0,0 +1,45 @@
+package com.example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Renders a single step diagram to SVG at increasing message counts, discarding the output. This is
+ * PlantUML layout and SVG serialization; the generator's own work around it is negligible.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RenderBenchmark {
+    @Param({"12", "48", "192"})
+    public int messageCount;
+
+    private final StepDiagramGenerator generator = new StepDiagramGenerator(GeneratorOptions.defaults());
+    private String source;
+
+    @Setup
+    public void setUp() {
+        source = new DiagramCorpusGenerator().steps(1).messagesPerStep(messageCount).noteDensity(0.1).generateSource(0);
+    }
+
+    @Benchmark
+    public void renderSingleStep() throws IOException {
+        generator.renderSteps(source, (index, step, fileName) -> OutputStream.nullOutputStream());
+    }
+}
@@ -0,0 +1,71 @@
+package com.example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds chains of cumulative steps with {@link StepBuilder}, and composes the PlantUML of every step
+ * as the generator does, at increasing step counts.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StepBuildingBenchmark {
+    private static final int MESSAGES_PER_STEP = 3;
+
+    @Param({"10", "100", "1000"})
+    public int stepCount;
+
+    private StepMetadata[] metadata;
+
+    @Setup
+    public void setUp() {
+        metadata = new StepMetadata[stepCount];
+        for (int i = 0; i < stepCount; i++) {
+            metadata[i] = new StepMetadata("Step " + (i + 1), false, new HashMap<>());
+        }
+    }
+
+    @Benchmark
+    public List<Step> build() {
+        return buildSteps();
+    }
+
+    @Benchmark
+    public void buildAndGenerate(Blackhole blackhole) {
+        for (Step step : buildSteps()) {
+            blackhole.consume(step.generatePlantUML());
+        }
+    }
+
+    private List<Step> buildSteps() {
+        StepBuilder builder = new StepBuilder();
+        builder.addContent("!include common.puml");
+        builder.addDeclaration("actor User");
+        builder.addDeclaration("participant System");
+        for (int i = 0; i < stepCount; i++) {
+            builder.startNewStep(metadata[i]);
+            for (int message = 0; message < MESSAGES_PER_STEP; message++) {
+                builder.addContent(message % 2 == 0 ? "User -> System: request" : "System --> User: response");
+            }
+        }
+        return builder.build();
+    }
+}
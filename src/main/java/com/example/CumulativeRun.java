@@ -0,0 +1,422 @@
+package com.example;
+
+import net.sourceforge.plantuml.code.TranscoderUtil;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A run of cumulative steps, each showing the diagram of the step before it plus more messages, laid out by
+ * PlantUML only once. The run's last step is rendered with every message a later step adds wrapped in a link
+ * naming that step, which PlantUML draws around the message without changing the layout. Each earlier step's
+ * SVG is then derived from that rendering by cutting the elements of the steps after it and replacing the title.
+ * Derived steps keep the size and participant positions of the last step, so stepping through them shows the
+ * messages appearing in place.
+ * <p>
+ * Only runs whose later steps add plain messages and notes between participants the first step already shows
+ * can be derived. {@link #of} returns null for any other run, and {@link #derive} returns null if PlantUML did not
+ * lay the diagram out as expected; the caller then renders each step on its own.
+ */
+final class CumulativeRun {
+    private static final String TAG = "step-diagram-derived-";
+    private static final String TAG_START = "<a href=\"#" + TAG;
+    private static final String SOURCE_COMMENT = "<!--SRC=[";
+    private static final String NAME = "(?:[A-Za-z0-9_.]+|\"[^\"]+\")";
+    // Groups: everything up to the receiver, the sender, the arrow, the receiver, and the optional text
+    private static final Pattern MESSAGE = Pattern.compile(
+            "(\\s*(" + NAME + ")\\s*(<{0,2}-(?:\\[[^\\]]*\\])?-?>{0,2})\\s*(" + NAME + "))(\\s*(?::.*)?)");
+    private static final Pattern DECLARATION = Pattern.compile(
+            "\\s*(?:participant|actor|boundary|control|entity|database|collections|queue)\\s+(" + NAME + ")(?:\\s+as\\s+(" + NAME + "))?.*",
+            Pattern.CASE_INSENSITIVE);
+    private static final Pattern NOTE = Pattern.compile("\\s*[hr]?note\\s+(left|right|over)\\b([^:]*)(:.*)?", Pattern.CASE_INSENSITIVE);
+    private static final Pattern END_NOTE = Pattern.compile("\\s*end\\s*[hr]?note\\s*", Pattern.CASE_INSENSITIVE);
+    private static final Pattern COMMENT = Pattern.compile("\\s*'.*");
+    // Elements PlantUML may draw after the messages, where cutting the later steps' elements would lose them
+    private static final Pattern DRAWN_AFTER_MESSAGES = Pattern.compile(
+            "\\s*(?:legend|footer|header|caption|newpage|mainframe|center|left|right)\\b.*", Pattern.CASE_INSENSITIVE);
+    private static final String[] CREOLE = {"**", "//", "__", "--", "\"\"", "~~", "^^", "<", ">", "[[", "\\", "~"};
+    private static final Pattern ATTRIBUTE = Pattern.compile("([\\w:-]+)=\"([^\"]*)\"");
+
+    private final List<String> sources;
+    private final List<String> names;
+    private final String taggedSource;
+    private final int taggedMessages;
+
+    private CumulativeRun(List<String> sources, List<String> names, String taggedSource, int taggedMessages) {
+        this.sources = sources;
+        this.names = names;
+        this.taggedSource = taggedSource;
+        this.taggedMessages = taggedMessages;
+    }
+
+    /**
+     * Prepares a run of composed step sources, or returns null if the run cannot be rendered as one layout.
+     *
+     * @param sources The complete source of each step, as composed by the generator
+     * @param names The name of each step, which the composed sources use as their title
+     */
+    static CumulativeRun of(List<String> sources, List<String> names) {
+        int steps = sources.size();
+        if (steps < 2) {
+            return null;
+        }
+        for (String name : names) {
+            if (!isPlainTitle(name)) {
+                return null;
+            }
+        }
+
+        // Every source is: the lines before the title, the title, the step's body, @enduml
+        List<String> head = null;
+        List<List<String>> bodies = new ArrayList<>();
+        for (int i = 0; i < steps; i++) {
+            List<String> lines = Arrays.asList(sources.get(i).split("\n"));
+            int title = lines.indexOf("title " + names.get(i));
+            if (title < 0 || !lines.get(lines.size() - 1).equals("@enduml")) {
+                return null;
+            }
+            if (head == null) {
+                head = lines.subList(0, title);
+            } else if (!head.equals(lines.subList(0, title))) {
+                return null;
+            }
+            List<String> body = lines.subList(title + 1, lines.size() - 1);
+            if (i > 0 && !isPrefix(bodies.get(i - 1), body)) {
+                return null;
+            }
+            bodies.add(body);
+        }
+
+        List<String> shared = new ArrayList<>(head);
+        shared.addAll(bodies.get(0));
+        Set<String> participants = new HashSet<>();
+        for (String line : shared) {
+            if (DRAWN_AFTER_MESSAGES.matcher(line).matches()) {
+                return null;
+            }
+            addParticipants(line, participants);
+        }
+
+        // Tag the messages of every later step, which must start with a message
+        List<String> body = new ArrayList<>(bodies.get(steps - 1));
+        int taggedMessages = 0;
+        for (int step = 1; step < steps; step++) {
+            boolean inNote = false;
+            boolean drawn = false;
+            for (int i = bodies.get(step - 1).size(); i < bodies.get(step).size(); i++) {
+                String line = body.get(i);
+                if (inNote) {
+                    inNote = !END_NOTE.matcher(line).matches();
+                    continue;
+                }
+                if (COMMENT.matcher(line).matches()) {
+                    continue;
+                }
+                Matcher message = MESSAGE.matcher(line);
+                Matcher note = NOTE.matcher(line);
+                if (message.matches() && isArrow(message.group(3)) && participants.contains(unquote(message.group(2)))
+                        && participants.contains(unquote(message.group(4)))) {
+                    body.set(i, message.group(1) + " [[#" + TAG + (step + 1) + "]]" + message.group(5));
+                    taggedMessages++;
+                    drawn = true;
+                } else if (note.matches() && drawn && knowsNoteParticipants(note.group(2), participants)) {
+                    inNote = note.group(3) == null;
+                } else {
+                    return null;
+                }
+            }
+            if (inNote) {
+                return null;
+            }
+        }
+
+        StringBuilder tagged = new StringBuilder();
+        for (String line : head) {
+            tagged.append(line).append('\n');
+        }
+        tagged.append("title ").append(names.get(steps - 1)).append('\n');
+        for (String line : body) {
+            tagged.append(line).append('\n');
+        }
+        tagged.append("@enduml\n");
+        return new CumulativeRun(sources, names, tagged.toString(), taggedMessages);
+    }
+
+    /**
+     * Returns the source to render once: the last step's source with the later steps' messages tagged.
+     */
+    String taggedSource() {
+        return taggedSource;
+    }
+
+    /**
+     * Derives the SVG of every step of the run from the rendering of the tagged source.
+     *
+     * @param taggedSvg The SVG PlantUML rendered from {@link #taggedSource()}
+     * @return The SVG of each step, in order, or null if the rendering is not laid out as expected
+     * @throws IOException If the embedded source of a step cannot be encoded
+     */
+    List<byte[]> derive(byte[] taggedSvg) throws IOException {
+        String svg = new String(taggedSvg, StandardCharsets.UTF_8);
+
+        // Each tagged message must be drawn as one element group, in step order, before the closing comment
+        int tail = svg.indexOf(SOURCE_COMMENT);
+        if (tail < 0) {
+            tail = svg.lastIndexOf("</g>");
+        }
+        List<Integer> tagStarts = new ArrayList<>();
+        List<Integer> tagSteps = new ArrayList<>();
+        int previousEnd = 0;
+        for (int start = svg.indexOf(TAG_START); start >= 0; start = svg.indexOf(TAG_START, start + 1)) {
+            int stepEnd = svg.indexOf('"', start + TAG_START.length());
+            int end = closingAnchor(svg, start);
+            if (stepEnd < 0 || end < 0 || start < previousEnd || end > tail) {
+                return null;
+            }
+            int step = Integer.parseInt(svg.substring(start + TAG_START.length(), stepEnd));
+            if (!tagSteps.isEmpty() && step < tagSteps.get(tagSteps.size() - 1)) {
+                return null;
+            }
+            tagStarts.add(start);
+            tagSteps.add(step);
+            previousEnd = end;
+        }
+        if (tail < 0 || tagStarts.size() != taggedMessages) {
+            return null;
+        }
+
+        // The title comes first, as the last step's name in bold
+        int titleStart = svg.indexOf("<text");
+        int titleOpenEnd = svg.indexOf('>', titleStart);
+        int titleEnd = svg.indexOf("</text>", titleStart);
+        if (titleStart < 0 || titleOpenEnd < 0 || titleEnd < 0
+                || (!tagStarts.isEmpty() && titleEnd > tagStarts.get(0))
+                || !svg.substring(titleStart, titleOpenEnd).contains("font-weight=\"bold\"")
+                || !svg.substring(titleOpenEnd + 1, titleEnd).equals(escape(names.get(names.size() - 1)))) {
+            return null;
+        }
+        String titleElement = svg.substring(titleStart, titleEnd + "</text>".length());
+        String centeredTitle = centeredTitle(svg.substring(titleStart, titleOpenEnd));
+        if (centeredTitle == null) {
+            return null;
+        }
+
+        List<byte[]> derived = new ArrayList<>();
+        for (int step = 1; step <= sources.size(); step++) {
+            int cut = tail;
+            for (int i = 0; i < tagSteps.size(); i++) {
+                if (tagSteps.get(i) > step) {
+                    cut = tagStarts.get(i);
+                    break;
+                }
+            }
+            StringBuilder stepSvg = new StringBuilder(svg.length());
+            stepSvg.append(svg, 0, titleStart);
+            if (step == sources.size()) {
+                stepSvg.append(titleElement);
+            } else {
+                stepSvg.append(centeredTitle).append('>').append(escape(names.get(step - 1))).append("</text>");
+            }
+            stepSvg.append(untag(svg.substring(titleStart + titleElement.length(), cut)));
+            stepSvg.append(withSource(svg.substring(tail), sources.get(step - 1)));
+            derived.add(stepSvg.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        return derived;
+    }
+
+    private static boolean isPrefix(List<String> prefix, List<String> lines) {
+        return prefix.size() <= lines.size() && lines.subList(0, prefix.size()).equals(prefix);
+    }
+
+    /**
+     * Returns true if PlantUML draws the name as a title of plain text, without Creole or HTML markup.
+     */
+    private static boolean isPlainTitle(String name) {
+        if (name.isEmpty() || !name.trim().equals(name) || name.contains("  ")) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) < ' ') {
+                return false;
+            }
+        }
+        for (String markup : CREOLE) {
+            if (name.contains(markup)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isArrow(String arrow) {
+        return arrow.indexOf('<') >= 0 || arrow.indexOf('>') >= 0;
+    }
+
+    private static void addParticipants(String line, Set<String> participants) {
+        Matcher declaration = DECLARATION.matcher(line);
+        if (declaration.matches()) {
+            participants.add(unquote(declaration.group(1)));
+            if (declaration.group(2) != null) {
+                participants.add(unquote(declaration.group(2)));
+            }
+            return;
+        }
+        Matcher message = MESSAGE.matcher(line);
+        if (message.matches() && isArrow(message.group(3))) {
+            participants.add(unquote(message.group(2)));
+            participants.add(unquote(message.group(4)));
+            return;
+        }
+        Matcher note = NOTE.matcher(line);
+        if (note.matches()) {
+            participants.addAll(noteParticipants(note.group(2)));
+        }
+    }
+
+    private static boolean knowsNoteParticipants(String position, Set<String> participants) {
+        return participants.containsAll(noteParticipants(position));
+    }
+
+    /**
+     * Returns the participants a note is placed on, from the text between left, right or over and the colon.
+     */
+    private static List<String> noteParticipants(String position) {
+        String names = position.trim();
+        if (names.toLowerCase(Locale.ROOT).startsWith("of ")) {
+            names = names.substring(3);
+        }
+        int color = names.indexOf('#');
+        if (color >= 0) {
+            names = names.substring(0, color);
+        }
+        List<String> participants = new ArrayList<>();
+        for (String name : names.split(",")) {
+            if (!name.isBlank()) {
+                participants.add(unquote(name.trim()));
+            }
+        }
+        return participants;
+    }
+
+    private static String unquote(String name) {
+        return name.startsWith("\"") ? name.substring(1, name.length() - 1) : name;
+    }
+
+    /**
+     * Returns the index after the {@code </a>} closing the anchor opened at the given index, or -1.
+     */
+    private static int closingAnchor(String svg, int start) {
+        int depth = 0;
+        int i = start;
+        while (i >= 0) {
+            int open = svg.indexOf("<a ", i);
+            int close = svg.indexOf("</a>", i);
+            if (close < 0) {
+                return -1;
+            }
+            if (open >= 0 && open < close) {
+                depth++;
+                i = open + 1;
+            } else {
+                depth--;
+                i = close + "</a>".length();
+                if (depth == 0) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Removes the tag links around messages, keeping the messages.
+     */
+    private static String untag(String elements) {
+        StringBuilder untagged = new StringBuilder(elements);
+        for (int start = untagged.indexOf(TAG_START); start >= 0; start = untagged.indexOf(TAG_START, start)) {
+            int end = closingAnchor(untagged.toString(), start);
+            untagged.delete(end - "</a>".length(), end);
+            untagged.delete(start, untagged.indexOf(">", start) + 1);
+        }
+        return untagged.toString();
+    }
+
+    /**
+     * Turns the opening tag of the title, which PlantUML sizes and places for the last step's name,
+     * into one that centers any text on the same point.
+     */
+    private static String centeredTitle(String openingTag) {
+        StringBuilder tag = new StringBuilder("<text");
+        Double x = null;
+        Double length = null;
+        Matcher attribute = ATTRIBUTE.matcher(openingTag);
+        List<String> kept = new ArrayList<>();
+        while (attribute.find()) {
+            switch (attribute.group(1)) {
+                case "x":
+                    x = Double.valueOf(attribute.group(2));
+                    break;
+                case "textLength":
+                    length = Double.valueOf(attribute.group(2));
+                    break;
+                case "lengthAdjust":
+                    break;
+                default:
+                    kept.add(attribute.group());
+            }
+        }
+        if (x == null || length == null) {
+            return null;
+        }
+        for (String keptAttribute : kept) {
+            tag.append(' ').append(keptAttribute);
+        }
+        String center = new BigDecimal(x + length / 2).setScale(4, RoundingMode.HALF_UP).stripTrailingZeros().toPlainString();
+        return tag.append(" text-anchor=\"middle\" x=\"").append(center).append('"').toString();
+    }
+
+    /**
+     * Replaces the encoded source PlantUML embeds in the SVG with the step's own source.
+     */
+    private static String withSource(String tail, String source) throws IOException {
+        if (!tail.startsWith(SOURCE_COMMENT)) {
+            return tail;
+        }
+        int end = tail.indexOf("]-->");
+        if (end < 0) {
+            return tail;
+        }
+        return SOURCE_COMMENT + TranscoderUtil.getDefaultTranscoder().encode(source) + tail.substring(end);
+    }
+
+    /**
+     * Escapes text the way PlantUML writes it into its US-ASCII SVG documents.
+     */
+    private static String escape(String text) {
+        StringBuilder escaped = new StringBuilder();
+        text.codePoints().forEach(c -> {
+            if (c == '&') {
+                escaped.append("&amp;");
+            } else if (c == '<') {
+                escaped.append("&lt;");
+            } else if (c == '>') {
+                escaped.append("&gt;");
+            } else if (c > 0x7e) {
+                escaped.append("&#").append(c).append(';');
+            } else {
+                escaped.append((char) c);
+            }
+        });
+        return escaped.toString();
+    }
+}
@@ -0,0 +1,252 @@
+package com.example;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates synthetic PlantUML sequence diagrams with step markers, for benchmarks and scaling tests.
+ * Output is deterministic: the same settings and seed always produce the same files.
+ */
+public class DiagramCorpusGenerator {
+    private static final String INCLUDES_DIRECTORY = "includes";
+
+    private int participants = 4;
+    private int steps = 10;
+    private int messagesPerStep = 3;
+    private double newPageRatio = 0.1;
+    private int includeDepth = 0;
+    private double noteDensity = 0.0;
+    private long seed = 1;
+
+    public static void main(String[] args) {
+        DiagramCorpusGenerator generator = new DiagramCorpusGenerator();
+        List<String> paths = new ArrayList<>();
+        int files = 100;
+        int filesPerDirectory = 20;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("--files") && i + 1 < args.length) {
+                    files = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("--files-per-dir") && i + 1 < args.length) {
+                    filesPerDirectory = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("--participants") && i + 1 < args.length) {
+                    generator.participants(Integer.parseInt(args[++i]));
+                } else if (args[i].equals("--steps") && i + 1 < args.length) {
+                    generator.steps(Integer.parseInt(args[++i]));
+                } else if (args[i].equals("--messages") && i + 1 < args.length) {
+                    generator.messagesPerStep(Integer.parseInt(args[++i]));
+                } else if (args[i].equals("--new-page-ratio") && i + 1 < args.length) {
+                    generator.newPageRatio(Double.parseDouble(args[++i]));
+                } else if (args[i].equals("--include-depth") && i + 1 < args.length) {
+                    generator.includeDepth(Integer.parseInt(args[++i]));
+                } else if (args[i].equals("--note-density") && i + 1 < args.length) {
+                    generator.noteDensity(Double.parseDouble(args[++i]));
+                } else if (args[i].equals("--seed") && i + 1 < args.length) {
+                    generator.seed(Long.parseLong(args[++i]));
+                } else {
+                    paths.add(args[i]);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println("Invalid option: " + e.getMessage());
+            System.exit(1);
+        }
+
+        if (paths.size() != 1) {
+            System.err.println("Usage: DiagramCorpusGenerator [options] <output-directory>");
+            System.err.println("Options:");
+            System.err.println("  --files <n>             Number of diagrams (default 100)");
+            System.err.println("  --files-per-dir <n>     Diagrams in each directory (default 20)");
+            System.err.println("  --participants <n>      Participants in each diagram (default 4)");
+            System.err.println("  --steps <n>             Steps in each diagram (default 10)");
+            System.err.println("  --messages <n>          Messages added by each step (default 3)");
+            System.err.println("  --new-page-ratio <r>    Share of steps starting a new page (default 0.1)");
+            System.err.println("  --include-depth <n>     Depth of the chain of included files (default 0)");
+            System.err.println("  --note-density <r>      Share of messages followed by a note (default 0)");
+            System.err.println("  --seed <n>              Seed the diagrams are derived from (default 1)");
+            System.exit(1);
+        }
+
+        File outputRoot = new File(paths.get(0));
+        try {
+            List<File> diagrams = generator.generateTree(outputRoot, files, filesPerDirectory);
+            System.out.println("Generated " + diagrams.size() + " diagrams under " + outputRoot.getAbsolutePath());
+        } catch (IOException e) {
+            System.err.println("Error generating corpus: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Sets the number of participants in each diagram; the first is declared as an actor.
+     */
+    public DiagramCorpusGenerator participants(int participants) {
+        if (participants < 2) {
+            throw new IllegalArgumentException("A diagram needs at least 2 participants: " + participants);
+        }
+        this.participants = participants;
+        return this;
+    }
+
+    /**
+     * Sets the number of steps in each diagram.
+     */
+    public DiagramCorpusGenerator steps(int steps) {
+        if (steps < 1) {
+            throw new IllegalArgumentException("Steps must be at least 1: " + steps);
+        }
+        this.steps = steps;
+        return this;
+    }
+
+    /**
+     * Sets the number of messages each step adds.
+     */
+    public DiagramCorpusGenerator messagesPerStep(int messagesPerStep) {
+        if (messagesPerStep < 0) {
+            throw new IllegalArgumentException("Messages per step must not be negative: " + messagesPerStep);
+        }
+        this.messagesPerStep = messagesPerStep;
+        return this;
+    }
+
+    /**
+     * Sets the share of steps, from 0 to 1, that start a new page instead of continuing the previous step.
+     */
+    public DiagramCorpusGenerator newPageRatio(double newPageRatio) {
+        this.newPageRatio = checkRatio("New page ratio", newPageRatio);
+        return this;
+    }
+
+    /**
+     * Sets how deep the chain of included files is. Each diagram includes the first file of the chain,
+     * which includes the next. Includes are only written by {@link #generateTree(File, int, int)}.
+     */
+    public DiagramCorpusGenerator includeDepth(int includeDepth) {
+        if (includeDepth < 0) {
+            throw new IllegalArgumentException("Include depth must not be negative: " + includeDepth);
+        }
+        this.includeDepth = includeDepth;
+        return this;
+    }
+
+    /**
+     * Sets the share of messages, from 0 to 1, that are followed by a note.
+     */
+    public DiagramCorpusGenerator noteDensity(double noteDensity) {
+        this.noteDensity = checkRatio("Note density", noteDensity);
+        return this;
+    }
+
+    /**
+     * Sets the seed the diagrams are derived from.
+     */
+    public DiagramCorpusGenerator seed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    /**
+     * Generates the source of one diagram. Diagrams with different indexes differ, but the same index
+     * always gives the same source.
+     */
+    public String generateSource(int index) {
+        Random random = new Random(seed * 31 + index);
+        StringBuilder source = new StringBuilder("@startuml\n");
+        if (includeDepth > 0) {
+            source.append("!include ../").append(INCLUDES_DIRECTORY).append("/include-1.puml\n");
+        }
+
+        source.append("actor \"User\" as P1\n");
+        for (int i = 2; i <= participants; i++) {
+            source.append("participant \"Service ").append(i).append("\" as P").append(i).append('\n');
+        }
+        source.append('\n');
+
+        for (int step = 1; step <= steps; step++) {
+            boolean newPage = random.nextDouble() < newPageRatio;
+            source.append("' @step {\"name\": \"Step ").append(step).append(": Diagram ").append(index + 1)
+                    .append("\", \"newPage\": ").append(newPage).append("}\n");
+            for (int message = 1; message <= messagesPerStep; message++) {
+                int from = 1 + random.nextInt(participants);
+                int to = 1 + random.nextInt(participants - 1);
+                if (to >= from) {
+                    to++;
+                }
+                source.append('P').append(from).append(random.nextBoolean() ? " -> P" : " --> P").append(to)
+                        .append(": message ").append(step).append('.').append(message).append('\n');
+
+                if (random.nextDouble() < noteDensity) {
+                    if (random.nextBoolean()) {
+                        source.append("note right of P").append(to).append(": note ")
+                                .append(step).append('.').append(message).append('\n');
+                    } else {
+                        source.append("note over P").append(from).append(", P").append(to).append('\n')
+                                .append("  Note ").append(step).append('.').append(message).append('\n')
+                                .append("  spanning two lines\n")
+                                .append("end note\n");
+                    }
+                }
+            }
+            source.append('\n');
+        }
+        return source.append("@enduml\n").toString();
+    }
+
+    /**
+     * Generates a tree of diagrams: a style file at the root, the include chain in an includes directory,
+     * and the diagrams in numbered directories below the root, as the generator expects them.
+     *
+     * @param outputRoot The directory the tree is written to
+     * @param files The number of diagrams
+     * @param filesPerDirectory The number of diagrams in each directory
+     * @return The diagram files, in order
+     * @throws IOException If a file cannot be written
+     */
+    public List<File> generateTree(File outputRoot, int files, int filesPerDirectory) throws IOException {
+        if (filesPerDirectory < 1) {
+            throw new IllegalArgumentException("Files per directory must be at least 1: " + filesPerDirectory);
+        }
+        Files.createDirectories(outputRoot.toPath());
+        write(new File(outputRoot, "style.puml"), "@startuml\nskinparam shadowing false\nskinparam defaultFontSize 12\n@enduml\n");
+
+        if (includeDepth > 0) {
+            File includes = new File(outputRoot, INCLUDES_DIRECTORY);
+            Files.createDirectories(includes.toPath());
+            for (int level = 1; level <= includeDepth; level++) {
+                StringBuilder include = new StringBuilder("' Include level ").append(level).append('\n');
+                if (level < includeDepth) {
+                    include.append("!include include-").append(level + 1).append(".puml\n");
+                }
+                include.append("skinparam sequenceMessageAlign left\n");
+                write(new File(includes, "include-" + level + ".puml"), include.toString());
+            }
+        }
+
+        List<File> diagrams = new ArrayList<>();
+        for (int i = 0; i < files; i++) {
+            File directory = new File(outputRoot, String.format("group-%03d", i / filesPerDirectory + 1));
+            Files.createDirectories(directory.toPath());
+            File diagram = new File(directory, String.format("diagram-%05d.puml", i + 1));
+            write(diagram, generateSource(i));
+            diagrams.add(diagram);
+        }
+        return diagrams;
+    }
+
+    private static double checkRatio(String description, double ratio) {
+        if (!(ratio >= 0 && ratio <= 1)) {
+            throw new IllegalArgumentException(description + " must be between 0 and 1: " + ratio);
+        }
+        return ratio;
+    }
+
+    private static void write(File file, String content) throws IOException {
+        Files.writeString(file.toPath(), content, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,235 @@
+package com.example;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Watches a tree of PlantUML files and regenerates the step diagrams of each file as it changes.
+ * The generator stays loaded between changes and only re-renders steps whose composed source changed.
+ * A change to a {@code style.puml} in the tree, or to the configured style file wherever it is,
+ * regenerates every diagram.
+ */
+public class DiagramWatcher implements Closeable {
+    private static final String STYLE_FILE_NAME = "style.puml";
+    private static final long SETTLE_MILLIS = 100;
+
+    private final File inputRoot;
+    private final File outputRoot;
+    private final Path styleFile;
+    private final StepDiagramGenerator generator;
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> watchedDirectories = new HashMap<>();
+    private volatile Consumer<List<File>> generationListener = files -> { };
+
+    /**
+     * Creates a watcher for a diagrams tree. Steps are only re-rendered when their composed source changes.
+     *
+     * @param inputRoot The directory tree containing the PlantUML files
+     * @param outputRoot The directory under which per-file output directories are created
+     * @param options The generator options; the watcher's generator skips unchanged steps whatever they say
+     * @throws IOException If the watch service cannot be created
+     */
+    public DiagramWatcher(File inputRoot, File outputRoot, GeneratorOptions options) throws IOException {
+        this.inputRoot = inputRoot.toPath().toAbsolutePath().normalize().toFile();
+        this.outputRoot = outputRoot;
+        this.styleFile = options.getStyleFile() != null ? options.getStyleFile().toPath().toAbsolutePath().normalize() : null;
+        this.generator = new StepDiagramGenerator(options.copy().skipUnchangedSteps(true));
+        this.watchService = FileSystems.getDefault().newWatchService();
+    }
+
+    /**
+     * Sets what is called with the diagrams regenerated, after the first generation and after each
+     * burst of changes has been handled, from the watching thread.
+     */
+    void setGenerationListener(Consumer<List<File>> generationListener) {
+        this.generationListener = generationListener;
+    }
+
+    /**
+     * Generates the whole tree once, then regenerates changed files until the thread is interrupted
+     * or the watcher is closed.
+     *
+     * @throws IOException If the tree cannot be watched
+     */
+    public void run() throws IOException {
+        if (!inputRoot.isDirectory()) {
+            throw new IOException("Input directory not found: " + inputRoot.getAbsolutePath());
+        }
+        registerTree(inputRoot.toPath());
+        if (styleFile != null && !styleFile.startsWith(inputRoot.toPath())) {
+            // Only the style file itself is of interest in its directory; other events there are ignored
+            register(styleFile.getParent());
+        }
+        regenerate(StepDiagramGenerator.findPumlFiles(inputRoot));
+        System.out.println("Watching " + inputRoot.getAbsolutePath() + " for changes");
+
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                WatchKey key = watchService.take();
+                Set<Path> changed = new LinkedHashSet<>();
+                Set<Path> deleted = new LinkedHashSet<>();
+                collectEvents(key, changed, deleted);
+
+                // Editors often save in several steps; let the burst settle before regenerating
+                while ((key = watchService.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+                    collectEvents(key, changed, deleted);
+                }
+                handleChanges(changed, deleted);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            // Closed from another thread
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+    }
+
+    private void handleChanges(Set<Path> changed, Set<Path> deleted) throws IOException {
+        for (Path path : deleted) {
+            if (isPumlFile(path)) {
+                deleteRecursively(new File(outputRoot, StepDiagramGenerator.baseName(path.toFile())).toPath());
+                System.out.println("Removed output for " + path);
+            }
+        }
+
+        boolean styleChanged = changed.stream().anyMatch(this::isStyleFile)
+                || deleted.stream().anyMatch(this::isStyleFile);
+        if (styleChanged) {
+            // The style is part of every composed step source; unchanged steps are still skipped
+            regenerate(StepDiagramGenerator.findPumlFiles(inputRoot));
+            return;
+        }
+
+        Set<File> pumlFiles = new LinkedHashSet<>();
+        for (Path path : changed) {
+            if (isPumlFile(path) && Files.isRegularFile(path)) {
+                pumlFiles.add(path.toFile().getAbsoluteFile());
+            }
+        }
+        // Included fragments are inlined into the steps of every diagram that includes them
+        for (File diagram : generator.diagramsWithChangedIncludes()) {
+            if (diagram.isFile()) {
+                pumlFiles.add(diagram);
+            }
+        }
+        regenerate(new ArrayList<>(pumlFiles));
+    }
+
+    private void regenerate(List<File> pumlFiles) {
+        try {
+            generateEach(pumlFiles);
+        } finally {
+            generationListener.accept(pumlFiles);
+        }
+    }
+
+    private void generateEach(List<File> pumlFiles) {
+        for (File pumlFile : pumlFiles) {
+            long start = System.nanoTime();
+            try {
+                generator.generateFiles(List.of(pumlFile), outputRoot);
+                long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                System.out.println("Regenerated " + pumlFile.getPath() + " in " + millis + " ms");
+            } catch (IOException | RuntimeException e) {
+                // Keep watching: the file may be mid-edit and fixed by the next save
+                System.err.println("Error generating step diagrams for " + pumlFile.getPath() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private void collectEvents(WatchKey key, Set<Path> changed, Set<Path> deleted) throws IOException {
+        Path directory = watchedDirectories.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW || directory == null) {
+                // Events were lost; treat every diagram as changed
+                for (File pumlFile : StepDiagramGenerator.findPumlFiles(inputRoot)) {
+                    changed.add(pumlFile.toPath());
+                }
+                continue;
+            }
+
+            Path path = directory.resolve((Path) event.context());
+            if (!path.startsWith(inputRoot.toPath()) && !isStyleFile(path)) {
+                continue;
+            }
+            if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                changed.remove(path);
+                deleted.add(path);
+            } else if (Files.isDirectory(path)) {
+                if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                    registerTree(path);
+                    for (File pumlFile : StepDiagramGenerator.findPumlFiles(path.toFile())) {
+                        changed.add(pumlFile.toPath());
+                    }
+                }
+            } else {
+                deleted.remove(path);
+                changed.add(path);
+            }
+        }
+        if (!key.reset()) {
+            watchedDirectories.remove(key);
+        }
+    }
+
+    private void registerTree(Path root) throws IOException {
+        try (Stream<Path> directories = Files.walk(root)) {
+            for (Path directory : (Iterable<Path>) directories.filter(Files::isDirectory)::iterator) {
+                register(directory);
+            }
+        }
+    }
+
+    private void register(Path directory) throws IOException {
+        WatchKey key = directory.register(watchService,
+                StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY,
+                StandardWatchEventKinds.ENTRY_DELETE);
+        watchedDirectories.put(key, directory);
+    }
+
+    private static boolean isPumlFile(Path path) {
+        return path.getFileName().toString().endsWith(".puml");
+    }
+
+    private boolean isStyleFile(Path path) {
+        return (path.startsWith(inputRoot.toPath()) && path.getFileName().toString().equals(STYLE_FILE_NAME))
+                || (styleFile != null && styleFile.equals(path.toAbsolutePath().normalize()));
+    }
+
+    private static void deleteRecursively(Path root) throws IOException {
+        if (!Files.exists(root)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(root)) {
+            List<Path> ordered = new ArrayList<>();
+            paths.forEach(ordered::add);
+            // Children before their parents
+            for (int i = ordered.size() - 1; i >= 0; i--) {
+                Files.deleteIfExists(ordered.get(i));
+            }
+        }
+    }
+}
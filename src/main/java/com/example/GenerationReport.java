@@ -0,0 +1,361 @@
+package com.example;
+
+import com.google.gson.GsonBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timings of one generator run, per file and per step, broken down by phase. The report is written
+ * as JSON and summarised with totals, percentiles and the slowest diagrams and steps.
+ */
+class GenerationReport {
+    private static final int SLOWEST = 10;
+
+    /**
+     * The phases a step's time is spent in.
+     */
+    enum Phase {
+        /** Composing the step's PlantUML source. */
+        COMPOSE("compose"),
+        /** PlantUML preprocessing and building the diagram from the source. */
+        DIAGRAM("diagram"),
+        /** PlantUML layout and SVG serialization, which PlantUML does in one pass. */
+        LAYOUT_AND_SVG("layoutAndSvg"),
+        /** Writing the step source and SVG files, or copying the SVG from the render cache. */
+        WRITE("write");
+
+        private final String key;
+
+        Phase(String key) {
+            this.key = key;
+        }
+    }
+
+    private final Instant startedAt = Instant.now();
+    private final long startNanos = System.nanoTime();
+    private final List<FileTiming> files = new ArrayList<>();
+    private final List<StepTiming> steps = new ArrayList<>();
+    private long wallNanos;
+
+    /**
+     * Starts timing a diagram file.
+     */
+    synchronized FileTiming startFile(File file) {
+        FileTiming timing = new FileTiming(file.getPath());
+        files.add(timing);
+        return timing;
+    }
+
+    /**
+     * Ends the run.
+     */
+    void finish() {
+        wallNanos = System.nanoTime() - startNanos;
+    }
+
+    /**
+     * Writes the JSON report and prints a summary.
+     */
+    synchronized void write(File reportFile, PrintStream summary) throws IOException {
+        File parent = reportFile.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            Files.createDirectories(parent.toPath());
+        }
+        String json = new GsonBuilder().setPrettyPrinting().create().toJson(toJson());
+        Files.writeString(reportFile.toPath(), json, StandardCharsets.UTF_8);
+        printSummary(summary);
+        summary.println("Timing report: " + reportFile.getAbsolutePath());
+    }
+
+    synchronized Map<String, Object> toJson() {
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("startedAt", startedAt.toString());
+        report.put("wallMillis", millis(wallNanos));
+        report.put("files", files.size());
+        report.put("steps", steps.size());
+        report.put("cacheHits", steps.stream().filter(step -> step.cacheHit).count());
+        report.put("unchanged", steps.stream().filter(step -> step.unchanged).count());
+        report.put("svgBytes", svgBytes());
+
+        Map<String, Object> throughput = new LinkedHashMap<>();
+        double seconds = wallNanos / 1e9;
+        throughput.put("filesPerSecond", seconds > 0 ? files.size() / seconds : 0);
+        throughput.put("stepsPerSecond", seconds > 0 ? steps.size() / seconds : 0);
+        throughput.put("svgMegabytesPerSecond", seconds > 0 ? svgBytes() / 1e6 / seconds : 0);
+        report.put("throughput", throughput);
+
+        Map<String, Object> phases = new LinkedHashMap<>();
+        long total = parseNanos() + viewerNanos();
+        for (Phase phase : Phase.values()) {
+            total += phaseNanos(phase);
+        }
+        phases.put("parse", phaseJson(parseNanos(), total));
+        for (Phase phase : Phase.values()) {
+            phases.put(phase.key, phaseJson(phaseNanos(phase), total));
+        }
+        phases.put("viewer", phaseJson(viewerNanos(), total));
+        report.put("phases", phases);
+
+        report.put("stepMillis", percentilesJson(steps.stream().mapToLong(StepTiming::totalNanos).toArray()));
+        report.put("fileMillis", percentilesJson(files.stream().mapToLong(file -> file.wallNanos).toArray()));
+        report.put("slowestFiles", slowestFiles().stream().map(FileTiming::toJson).toArray());
+        report.put("slowestSteps", slowestSteps().stream().map(StepTiming::toJson).toArray());
+        report.put("fileTimings", files.stream().map(FileTiming::toJson).toArray());
+        report.put("stepTimings", steps.stream().map(StepTiming::toJson).toArray());
+        return report;
+    }
+
+    synchronized void printSummary(PrintStream out) {
+        double seconds = wallNanos / 1e9;
+        out.printf("Generated %d diagrams, %d steps in %.1f s (%.1f steps/s, %d cache hits, %d unchanged)%n",
+                files.size(), steps.size(), seconds, seconds > 0 ? steps.size() / seconds : 0,
+                steps.stream().filter(step -> step.cacheHit).count(), steps.stream().filter(step -> step.unchanged).count());
+
+        out.println("Time by phase, summed over render threads:");
+        long total = parseNanos() + viewerNanos();
+        for (Phase phase : Phase.values()) {
+            total += phaseNanos(phase);
+        }
+        printPhase(out, "parse", parseNanos(), total);
+        for (Phase phase : Phase.values()) {
+            printPhase(out, phase.key, phaseNanos(phase), total);
+        }
+        printPhase(out, "viewer", viewerNanos(), total);
+
+        out.println("Step time:    " + percentilesText(steps.stream().mapToLong(StepTiming::totalNanos).toArray()));
+        out.println("Diagram time: " + percentilesText(files.stream().mapToLong(file -> file.wallNanos).toArray()));
+
+        out.println("Slowest diagrams:");
+        for (FileTiming file : slowestFiles()) {
+            out.printf("  %8.1f ms  %s (%d steps)%n", millis(file.wallNanos), file.file, file.steps);
+        }
+        out.println("Slowest steps:");
+        for (StepTiming step : slowestSteps()) {
+            out.printf("  %8.1f ms  %s: %s%n", millis(step.totalNanos()), step.file, step.step);
+        }
+    }
+
+    private List<FileTiming> slowestFiles() {
+        List<FileTiming> slowest = new ArrayList<>(files);
+        slowest.sort(Comparator.comparingLong((FileTiming file) -> file.wallNanos).reversed());
+        return slowest.subList(0, Math.min(SLOWEST, slowest.size()));
+    }
+
+    private List<StepTiming> slowestSteps() {
+        List<StepTiming> slowest = new ArrayList<>(steps);
+        slowest.sort(Comparator.comparingLong(StepTiming::totalNanos).reversed());
+        return slowest.subList(0, Math.min(SLOWEST, slowest.size()));
+    }
+
+    private long svgBytes() {
+        return steps.stream().mapToLong(step -> step.svgBytes).sum();
+    }
+
+    private long parseNanos() {
+        return files.stream().mapToLong(file -> file.parseNanos).sum();
+    }
+
+    private long viewerNanos() {
+        return files.stream().mapToLong(file -> file.viewerNanos).sum();
+    }
+
+    private long phaseNanos(Phase phase) {
+        return steps.stream().mapToLong(step -> step.nanos[phase.ordinal()]).sum();
+    }
+
+    private static void printPhase(PrintStream out, String name, long nanos, long total) {
+        out.printf("  %-14s %10.1f ms %6.1f%%%n", name, millis(nanos), total > 0 ? 100.0 * nanos / total : 0);
+    }
+
+    private static Map<String, Object> phaseJson(long nanos, long total) {
+        Map<String, Object> phase = new LinkedHashMap<>();
+        phase.put("totalMillis", millis(nanos));
+        phase.put("share", total > 0 ? (double) nanos / total : 0);
+        return phase;
+    }
+
+    private static Map<String, Object> percentilesJson(long[] nanos) {
+        Arrays.sort(nanos);
+        Map<String, Object> percentiles = new LinkedHashMap<>();
+        percentiles.put("p50", millis(percentile(nanos, 0.50)));
+        percentiles.put("p90", millis(percentile(nanos, 0.90)));
+        percentiles.put("p99", millis(percentile(nanos, 0.99)));
+        percentiles.put("max", millis(nanos.length > 0 ? nanos[nanos.length - 1] : 0));
+        return percentiles;
+    }
+
+    private static String percentilesText(long[] nanos) {
+        Arrays.sort(nanos);
+        return String.format("p50 %.1f ms, p90 %.1f ms, p99 %.1f ms, max %.1f ms",
+                millis(percentile(nanos, 0.50)), millis(percentile(nanos, 0.90)), millis(percentile(nanos, 0.99)),
+                millis(nanos.length > 0 ? nanos[nanos.length - 1] : 0));
+    }
+
+    /**
+     * Returns the nearest-rank percentile of sorted values, or 0 if there are none.
+     */
+    static long percentile(long[] sorted, double fraction) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(fraction * sorted.length);
+        return sorted[Math.max(rank, 1) - 1];
+    }
+
+    private static double millis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /**
+     * Timings of one diagram file. Updated by the thread generating the file.
+     */
+    final class FileTiming {
+        private final String file;
+        private final long startNanos = System.nanoTime();
+        private long parseNanos;
+        private long viewerNanos;
+        private long wallNanos;
+        private int steps;
+
+        private FileTiming(String file) {
+            this.file = file;
+        }
+
+        /**
+         * Starts timing a step of this file, or its summary diagram.
+         */
+        StepTiming startStep(String step) {
+            StepTiming timing = new StepTiming(file, step);
+            synchronized (GenerationReport.this) {
+                GenerationReport.this.steps.add(timing);
+            }
+            steps++;
+            return timing;
+        }
+
+        /**
+         * Wraps a step iterator so the time spent parsing the next step is counted.
+         */
+        Iterator<Step> timeParsing(Iterator<Step> stepIterator) {
+            return new Iterator<>() {
+                @Override
+                public boolean hasNext() {
+                    long start = System.nanoTime();
+                    try {
+                        return stepIterator.hasNext();
+                    } finally {
+                        parseNanos += System.nanoTime() - start;
+                    }
+                }
+
+                @Override
+                public Step next() {
+                    long start = System.nanoTime();
+                    try {
+                        return stepIterator.next();
+                    } finally {
+                        parseNanos += System.nanoTime() - start;
+                    }
+                }
+            };
+        }
+
+        void addViewerNanos(long nanos) {
+            viewerNanos += nanos;
+        }
+
+        /**
+         * Ends timing the file, once all its steps are rendered.
+         */
+        void finish() {
+            wallNanos = System.nanoTime() - startNanos;
+        }
+
+        private Map<String, Object> toJson() {
+            Map<String, Object> json = new LinkedHashMap<>();
+            json.put("file", file);
+            json.put("millis", millis(wallNanos));
+            json.put("steps", steps);
+            json.put("parseMillis", millis(parseNanos));
+            json.put("viewerMillis", millis(viewerNanos));
+            return json;
+        }
+    }
+
+    /**
+     * Timings of one step. Composed on the generating thread and rendered on a render thread;
+     * the render's completion is awaited before the report is read.
+     */
+    static final class StepTiming {
+        private final String file;
+        private final String step;
+        private final long[] nanos = new long[Phase.values().length];
+        private long svgBytes;
+        private boolean cacheHit;
+        private boolean unchanged;
+
+        StepTiming(String file, String step) {
+            this.file = file;
+            this.step = step;
+        }
+
+        String getFile() {
+            return file;
+        }
+
+        String getStep() {
+            return step;
+        }
+
+        void add(Phase phase, long phaseNanos) {
+            nanos[phase.ordinal()] += phaseNanos;
+        }
+
+        void svgWritten(long bytes, boolean fromCache) {
+            svgBytes = bytes;
+            cacheHit = fromCache;
+        }
+
+        /**
+         * Records that the step was skipped because its SVG is up to date.
+         */
+        void unchanged() {
+            unchanged = true;
+        }
+
+        long totalNanos() {
+            long total = 0;
+            for (long phaseNanos : nanos) {
+                total += phaseNanos;
+            }
+            return total;
+        }
+
+        private Map<String, Object> toJson() {
+            Map<String, Object> json = new LinkedHashMap<>();
+            json.put("file", file);
+            json.put("step", step);
+            json.put("millis", millis(totalNanos()));
+            for (Phase phase : Phase.values()) {
+                json.put(phase.key + "Millis", millis(nanos[phase.ordinal()]));
+            }
+            json.put("svgBytes", svgBytes);
+            json.put("cacheHit", cacheHit);
+            json.put("unchanged", unchanged);
+            return json;
+        }
+    }
+}
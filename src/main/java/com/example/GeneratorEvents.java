@@ -0,0 +1,86 @@
+package com.example;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder events emitted while parsing and rendering step diagrams. They are recorded along
+ * with the JDK's own events when a run is started with {@code -XX:StartFlightRecording}, and cost next
+ * to nothing otherwise.
+ */
+final class GeneratorEvents {
+    private static final String CATEGORY = "PlantUML Steps";
+
+    private GeneratorEvents() {
+    }
+
+    @Name("com.example.FileParsed")
+    @Label("File Parsed")
+    @Description("A PlantUML file read and split into steps. For a streamed file the event also spans the work done on each step as it is emitted")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class FileParsed extends Event {
+        @Label("File")
+        String file;
+
+        @Label("Lines")
+        @Description("Non-blank lines read")
+        int lines;
+
+        @Label("Steps")
+        int steps;
+    }
+
+    @Name("com.example.StepComposed")
+    @Label("Step Composed")
+    @Description("The complete PlantUML source of a step or summary diagram composed")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class StepComposed extends Event {
+        @Label("Step")
+        String step;
+
+        @Label("Source Length")
+        @Description("Characters in the composed source")
+        int characters;
+    }
+
+    @Name("com.example.SvgRendered")
+    @Label("SVG Rendered")
+    @Description("PlantUML run on a step's source to produce its SVG")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class SvgRendered extends Event {
+        @Label("File")
+        String file;
+
+        @Label("Step")
+        String step;
+
+        @Label("Output Size")
+        @DataAmount(DataAmount.BYTES)
+        long bytes;
+    }
+
+    @Name("com.example.ViewerWritten")
+    @Label("Viewer Written")
+    @Description("The HTML viewer of a diagram written")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class ViewerWritten extends Event {
+        @Label("Directory")
+        String directory;
+
+        @Label("Steps")
+        int steps;
+
+        @Label("Output Size")
+        @DataAmount(DataAmount.BYTES)
+        long bytes;
+    }
+}
@@ -0,0 +1,342 @@
+package com.example;
+
+import java.io.File;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Configuration for a {@link StepDiagramGenerator} run.
+ */
+public class GeneratorOptions {
+    /**
+     * How the generated SVGs and viewer are compressed.
+     */
+    public enum Compression {
+        /** Only the plain files are written. */
+        NONE,
+        /** A gzipped copy ({@code .gz}) is written next to each plain file. */
+        GZIP_ALONGSIDE,
+        /** Only the gzipped files are written. */
+        GZIP_ONLY
+    }
+
+    /**
+     * A format the rendered SVGs can be exported to.
+     */
+    public enum ExportFormat {
+        PNG,
+        PDF
+    }
+
+    private int renderThreads = 1;
+    private boolean writeStepSources = true;
+    private File cacheDirectory;
+    private long cacheMaxBytes = 256L * 1024 * 1024;
+    private boolean skipUnchangedSteps;
+    private File timingReport;
+    private boolean deriveCumulativeSteps;
+    private boolean bundleSteps;
+    private Compression compression = Compression.NONE;
+    private boolean minifySvg;
+    private Set<ExportFormat> exportFormats = EnumSet.noneOf(ExportFormat.class);
+    private float exportDpi = 96f;
+    private int thumbnailWidth;
+    private int exportThreads = Runtime.getRuntime().availableProcessors();
+    private File styleFile;
+
+    /**
+     * Returns the options used when nothing is configured.
+     */
+    public static GeneratorOptions defaults() {
+        return new GeneratorOptions();
+    }
+
+    /**
+     * Returns a copy of these options, which can be changed without affecting these.
+     */
+    public GeneratorOptions copy() {
+        GeneratorOptions copy = new GeneratorOptions();
+        copy.renderThreads = renderThreads;
+        copy.writeStepSources = writeStepSources;
+        copy.cacheDirectory = cacheDirectory;
+        copy.cacheMaxBytes = cacheMaxBytes;
+        copy.skipUnchangedSteps = skipUnchangedSteps;
+        copy.timingReport = timingReport;
+        copy.deriveCumulativeSteps = deriveCumulativeSteps;
+        copy.bundleSteps = bundleSteps;
+        copy.compression = compression;
+        copy.minifySvg = minifySvg;
+        copy.exportFormats = exportFormats.isEmpty() ? EnumSet.noneOf(ExportFormat.class) : EnumSet.copyOf(exportFormats);
+        copy.exportDpi = exportDpi;
+        copy.thumbnailWidth = thumbnailWidth;
+        copy.exportThreads = exportThreads;
+        copy.styleFile = styleFile;
+        return copy;
+    }
+
+    /**
+     * Returns the number of threads used to render step diagrams.
+     * A value of 1 renders every diagram on the calling thread.
+     */
+    public int getRenderThreads() {
+        return renderThreads;
+    }
+
+    /**
+     * Sets the number of threads used to render step diagrams.
+     */
+    public GeneratorOptions renderThreads(int renderThreads) {
+        if (renderThreads < 1) {
+            throw new IllegalArgumentException("Render threads must be at least 1: " + renderThreads);
+        }
+        this.renderThreads = renderThreads;
+        return this;
+    }
+
+    /**
+     * Returns whether the composed PlantUML source of each step is written next to its SVG.
+     */
+    public boolean isWriteStepSources() {
+        return writeStepSources;
+    }
+
+    /**
+     * Sets whether the composed PlantUML source of each step is written next to its SVG.
+     */
+    public GeneratorOptions writeStepSources(boolean writeStepSources) {
+        this.writeStepSources = writeStepSources;
+        return this;
+    }
+
+    /**
+     * Returns the directory of the persistent render cache, or null if rendered SVGs are not cached.
+     */
+    public File getCacheDirectory() {
+        return cacheDirectory;
+    }
+
+    /**
+     * Returns the size bound of the render cache in bytes.
+     */
+    public long getCacheMaxBytes() {
+        return cacheMaxBytes;
+    }
+
+    /**
+     * Enables the persistent render cache. Steps whose composed source has been rendered
+     * before, by the same PlantUML version, are copied from the cache instead of rendered.
+     *
+     * @param cacheDirectory The directory holding cached SVGs
+     * @param cacheMaxBytes The size bound; least recently used entries are evicted beyond it
+     */
+    public GeneratorOptions renderCache(File cacheDirectory, long cacheMaxBytes) {
+        if (cacheMaxBytes < 0) {
+            throw new IllegalArgumentException("Cache size must not be negative: " + cacheMaxBytes);
+        }
+        this.cacheDirectory = cacheDirectory;
+        this.cacheMaxBytes = cacheMaxBytes;
+        return this;
+    }
+
+    /**
+     * Returns whether a generator skips steps it has already rendered from the same source.
+     */
+    public boolean isSkipUnchangedSteps() {
+        return skipUnchangedSteps;
+    }
+
+    /**
+     * Sets whether a generator remembers the source it rendered to each SVG file and skips
+     * rendering a step again while its composed source is unchanged and the SVG still exists.
+     * Useful for long-running generators that regenerate the same files repeatedly.
+     */
+    public GeneratorOptions skipUnchangedSteps(boolean skipUnchangedSteps) {
+        this.skipUnchangedSteps = skipUnchangedSteps;
+        return this;
+    }
+
+    /**
+     * Returns the file the timing report of each run is written to, or null if no report is written.
+     */
+    public File getTimingReport() {
+        return timingReport;
+    }
+
+    /**
+     * Sets a file to write a JSON report of where each run spent its time to, per file, step and phase.
+     * A summary of the report is printed at the end of the run.
+     */
+    public GeneratorOptions timingReport(File timingReport) {
+        this.timingReport = timingReport;
+        return this;
+    }
+
+    /**
+     * Returns whether the SVGs of continuing steps are derived from a single layout of the last step.
+     */
+    public boolean isDeriveCumulativeSteps() {
+        return deriveCumulativeSteps;
+    }
+
+    /**
+     * Sets whether each run of steps that continue one another (with {@code newPage: false}) is laid out
+     * once, for its last step, with the earlier steps' SVGs derived by leaving out the later messages.
+     * Derived steps keep the size and participant positions of the run's last step. Runs whose steps add
+     * anything but messages and notes between already shown participants are rendered step by step.
+     */
+    public GeneratorOptions deriveCumulativeSteps(boolean deriveCumulativeSteps) {
+        this.deriveCumulativeSteps = deriveCumulativeSteps;
+        return this;
+    }
+
+    /**
+     * Returns whether the step SVGs are also bundled into one compressed file for the viewer.
+     */
+    public boolean isBundleSteps() {
+        return bundleSteps;
+    }
+
+    /**
+     * Sets whether all step SVGs of a diagram are also written to one compressed bundle, which the viewer
+     * loads once and decodes each step from as it is shown. The step SVGs are still written on their own,
+     * and the viewer falls back to them in browsers that cannot decompress the bundle.
+     */
+    public GeneratorOptions bundleSteps(boolean bundleSteps) {
+        this.bundleSteps = bundleSteps;
+        return this;
+    }
+
+    /**
+     * Returns how the generated SVGs and viewer are compressed.
+     */
+    public Compression getCompression() {
+        return compression;
+    }
+
+    /**
+     * Sets whether the step SVGs, summary SVG and viewer are also, or only, written gzipped, for web
+     * servers that serve precompressed files. The gzipped files are named after the plain ones with
+     * {@code .gz} appended.
+     */
+    public GeneratorOptions compression(Compression compression) {
+        if (compression == null) {
+            throw new IllegalArgumentException("Compression must not be null");
+        }
+        this.compression = compression;
+        return this;
+    }
+
+    /**
+     * Returns whether the SVGs are minified as they are written.
+     */
+    public boolean isMinifySvg() {
+        return minifySvg;
+    }
+
+    /**
+     * Sets whether the SVGs are minified as they are written: comments (including the source PlantUML
+     * embeds), processing instructions, indentation and default attributes are left out, and element IDs
+     * are numbered in document order. A step whose drawing is unchanged is then written with identical
+     * bytes even when its source changed, such as by an edited comment.
+     */
+    public GeneratorOptions minifySvg(boolean minifySvg) {
+        this.minifySvg = minifySvg;
+        return this;
+    }
+
+    /**
+     * Returns the formats the step and summary SVGs are exported to, besides SVG.
+     */
+    public Set<ExportFormat> getExportFormats() {
+        return EnumSet.copyOf(exportFormats);
+    }
+
+    /**
+     * Sets the formats the step and summary SVGs are exported to, besides SVG. The exports are
+     * transcoded from the rendered SVGs, so no diagram is laid out a second time.
+     */
+    public GeneratorOptions exportFormats(Set<ExportFormat> exportFormats) {
+        this.exportFormats = exportFormats.isEmpty() ? EnumSet.noneOf(ExportFormat.class) : EnumSet.copyOf(exportFormats);
+        return this;
+    }
+
+    /**
+     * Returns the resolution PNG exports are rendered at, in dots per inch.
+     */
+    public float getExportDpi() {
+        return exportDpi;
+    }
+
+    /**
+     * Sets the resolution PNG exports are rendered at, in dots per inch. At the default of 96 a PNG
+     * has the SVG's size in pixels; at 192 it has twice the width and height.
+     */
+    public GeneratorOptions exportDpi(float exportDpi) {
+        if (!(exportDpi > 0)) {
+            throw new IllegalArgumentException("Export DPI must be positive: " + exportDpi);
+        }
+        this.exportDpi = exportDpi;
+        return this;
+    }
+
+    /**
+     * Returns the width in pixels of the PNG thumbnail written for each SVG, or 0 if none are written.
+     */
+    public int getThumbnailWidth() {
+        return thumbnailWidth;
+    }
+
+    /**
+     * Sets the width in pixels of a PNG thumbnail ({@code <name>.thumb.png}) written for each SVG,
+     * or 0 to write none. Thumbnails keep the SVG's aspect ratio.
+     */
+    public GeneratorOptions thumbnailWidth(int thumbnailWidth) {
+        if (thumbnailWidth < 0) {
+            throw new IllegalArgumentException("Thumbnail width must not be negative: " + thumbnailWidth);
+        }
+        this.thumbnailWidth = thumbnailWidth;
+        return this;
+    }
+
+    /**
+     * Returns the number of threads SVGs are exported on.
+     */
+    public int getExportThreads() {
+        return exportThreads;
+    }
+
+    /**
+     * Sets the number of threads SVGs are exported on, apart from the render threads.
+     */
+    public GeneratorOptions exportThreads(int exportThreads) {
+        if (exportThreads < 1) {
+            throw new IllegalArgumentException("Export threads must be at least 1: " + exportThreads);
+        }
+        this.exportThreads = exportThreads;
+        return this;
+    }
+
+    /**
+     * Returns the style file applied to every diagram, or null to look for one next to each diagram.
+     */
+    public File getStyleFile() {
+        return styleFile;
+    }
+
+    /**
+     * Sets the style file whose skinparams and definitions are put at the start of every step.
+     * When not set, each diagram uses {@code style.puml} in the parent of its own directory, if there is one.
+     * The style is read once and read again only when the file changes.
+     */
+    public GeneratorOptions styleFile(File styleFile) {
+        this.styleFile = styleFile;
+        return this;
+    }
+
+    /**
+     * Returns whether any exports besides SVG are written.
+     */
+    boolean isExporting() {
+        return !exportFormats.isEmpty() || thumbnailWidth > 0;
+    }
+}
@@ -0,0 +1,186 @@
+package com.example;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Resolves the {@code !include} lines of step sources once per generator and inlines the included text.
+ * <p>
+ * Lines before a diagram's first step are copied into every step, so without the cache PlantUML opens
+ * and reads each included file again for every step. Here each file is read and preprocessed like a
+ * style file the first time it is included, with its own includes inlined, and kept with the size and
+ * modification time of every file it was built from. It is read again only when one of them changes.
+ * <p>
+ * Paths are resolved against the including file's directory, as the PlantUML command line does.
+ * Includes of the standard library ({@code <...>}), URLs, sub-parts ({@code file!id}) and files that do
+ * not exist are left for PlantUML, as are {@code !include_once} and the other include directives.
+ */
+final class IncludeCache {
+    private static final String INCLUDE = "!include";
+
+    private final Map<File, Included> included = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the source with the {@code !include} lines it can resolve replaced by the included text.
+     *
+     * @param source PlantUML source
+     * @param baseDir The directory relative includes are resolved against
+     * @throws IOException If an included file cannot be read or includes itself
+     */
+    String expand(String source, File baseDir) throws IOException {
+        return expand(source, baseDir, null);
+    }
+
+    /**
+     * Returns the source with the {@code !include} lines it can resolve replaced by the included text,
+     * adding every file the included text was built from to the given dependencies.
+     *
+     * @param dependencies Receives the included files, nested includes too; may be null
+     */
+    String expand(String source, File baseDir, Collection<Dependency> dependencies) throws IOException {
+        if (!source.contains(INCLUDE)) {
+            return source;
+        }
+        return expand(source, baseDir, new LinkedHashSet<>(), dependencies);
+    }
+
+    /**
+     * Returns the number of files currently cached.
+     */
+    int size() {
+        return included.size();
+    }
+
+    private String expand(String source, File baseDir, Set<File> including, Collection<Dependency> dependencies)
+            throws IOException {
+        StringBuilder expanded = new StringBuilder(source.length());
+        int position = 0;
+        while (position < source.length()) {
+            int lineEnd = source.indexOf('\n', position);
+            int next = lineEnd < 0 ? source.length() : lineEnd + 1;
+            File file = includedFile(source.substring(position, lineEnd < 0 ? source.length() : lineEnd), baseDir);
+            if (file == null) {
+                expanded.append(source, position, next);
+            } else {
+                Included text = include(file, including);
+                if (dependencies != null) {
+                    dependencies.addAll(text.dependencies);
+                }
+                if (!text.content.isEmpty()) {
+                    expanded.append(text.content).append('\n');
+                }
+            }
+            position = next;
+        }
+        return expanded.toString();
+    }
+
+    /**
+     * Returns the included text of a file, reading it again if it or a file it includes has changed.
+     */
+    private Included include(File file, Set<File> including) throws IOException {
+        Included text = included.get(file);
+        if (text != null && text.isCurrent()) {
+            return text;
+        }
+        if (!including.add(file)) {
+            throw new IOException("Include cycle: " + including + " includes " + file + " again");
+        }
+        try {
+            // Taken before reading, so a change made while the file is read is picked up next time
+            List<Dependency> dependencies = new ArrayList<>();
+            dependencies.add(new Dependency(file));
+            String content = StyleContext.preprocess(Files.readString(file.toPath()));
+            content = expand(content, file.getParentFile(), including, dependencies);
+            if (content.endsWith("\n")) {
+                content = content.substring(0, content.length() - 1);
+            }
+            text = new Included(content, Collections.unmodifiableList(dependencies));
+            included.put(file, text);
+            return text;
+        } finally {
+            including.remove(file);
+        }
+    }
+
+    /**
+     * Returns the file a line includes, or null if the line is not an include this cache resolves.
+     */
+    private static File includedFile(String line, File baseDir) {
+        String trimmed = line.trim();
+        if (!trimmed.startsWith(INCLUDE) || trimmed.length() == INCLUDE.length()
+                || !Character.isWhitespace(trimmed.charAt(INCLUDE.length()))) {
+            return null;
+        }
+        String path = trimmed.substring(INCLUDE.length()).trim();
+        if (path.length() > 1 && path.startsWith("\"") && path.endsWith("\"")) {
+            path = path.substring(1, path.length() - 1);
+        }
+        if (path.isEmpty() || path.startsWith("<") || path.contains("://") || path.indexOf('!') >= 0) {
+            return null;
+        }
+        File file = new File(path);
+        if (!file.isAbsolute()) {
+            file = new File(baseDir, path);
+        }
+        file = file.toPath().normalize().toFile();
+        return file.isFile() ? file : null;
+    }
+
+    /**
+     * The preprocessed text of an included file and every file it was built from.
+     */
+    private static final class Included {
+        private final String content;
+        private final List<Dependency> dependencies;
+
+        Included(String content, List<Dependency> dependencies) {
+            this.content = content;
+            this.dependencies = dependencies;
+        }
+
+        boolean isCurrent() {
+            for (Dependency dependency : dependencies) {
+                if (!dependency.isCurrent()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * A file and its size and modification time when it was read.
+     */
+    static final class Dependency {
+        private final File file;
+        private final long lastModified;
+        private final long length;
+
+        Dependency(File file) {
+            this.file = file;
+            this.lastModified = file.lastModified();
+            this.length = file.length();
+        }
+
+        File getFile() {
+            return file;
+        }
+
+        /**
+         * Returns whether the file is unchanged since it was read; a deleted file has changed.
+         */
+        boolean isCurrent() {
+            return file.lastModified() == lastModified && file.length() == length;
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package com.example;
+
+/**
+ * Classifies PlantUML source lines for the step parser without regular expressions or per-line allocation.
+ * Lines are dispatched on their first non-whitespace character and checked with in-place comparisons that
+ * accept exactly the lines the step marker and declaration patterns accepted.
+ */
+final class LineClassifier {
+    private static final String STEP_KEYWORD = "@step";
+    private static final String PARTICIPANT = "participant";
+    private static final String ACTOR = "actor";
+    private static final String INCLUDE = "!include";
+    private static final String IMPORT = "!import";
+
+    /**
+     * What a line means to the step parser.
+     */
+    enum Kind {
+        /** A {@code ' @step {...}} marker starting a new step. */
+        STEP_MARKER,
+        /** A {@code participant} or {@code actor} declaration. */
+        PARTICIPANT,
+        /** An {@code !include} declaration. */
+        INCLUDE,
+        /** A line with nothing but whitespace. */
+        BLANK,
+        /** Any other line. */
+        CONTENT
+    }
+
+    private LineClassifier() {
+    }
+
+    /**
+     * Classifies a line. Step markers take precedence, as they may appear anywhere in a line.
+     */
+    static Kind classify(String line) {
+        if (findStepMarker(line) >= 0) {
+            return Kind.STEP_MARKER;
+        }
+
+        int length = line.length();
+        int start = skipWhitespace(line, 0);
+        if (start == length) {
+            return Kind.BLANK;
+        }
+
+        char first = line.charAt(start);
+        if (first <= ' ') {
+            // A control character the declaration patterns don't treat as whitespace
+            return isBlank(line) ? Kind.BLANK : Kind.CONTENT;
+        }
+        switch (first) {
+            case 'p':
+            case 'P':
+                return isDeclaration(line, start, PARTICIPANT) ? Kind.PARTICIPANT : Kind.CONTENT;
+            case 'a':
+            case 'A':
+                return isDeclaration(line, start, ACTOR) ? Kind.PARTICIPANT : Kind.CONTENT;
+            case '!':
+                return isDeclaration(line, start, INCLUDE) ? Kind.INCLUDE : Kind.CONTENT;
+            default:
+                return Kind.CONTENT;
+        }
+    }
+
+    /**
+     * Returns true if the line is a step marker.
+     */
+    static boolean isStepMarker(String line) {
+        return findStepMarker(line) >= 0;
+    }
+
+    /**
+     * Returns the JSON object of a step marker, from its opening brace to the last closing brace,
+     * or null if the line is not a step marker.
+     */
+    static String stepMarkerJson(String line) {
+        int open = findStepMarker(line);
+        if (open < 0) {
+            return null;
+        }
+        return line.substring(open, closingBrace(line, open) + 1);
+    }
+
+    /**
+     * Returns true if the trimmed line starts with {@code participant } or {@code actor }, ignoring case.
+     * This is the check the step builder uses to carry participants over between steps.
+     */
+    static boolean isParticipantDeclaration(String line) {
+        int start = 0;
+        int end = line.length();
+        while (start < end && line.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && line.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        return startsWithWord(line, start, end, PARTICIPANT) || startsWithWord(line, start, end, ACTOR);
+    }
+
+    /**
+     * Returns true if the trimmed line is an {@code !import} or {@code !include} directive.
+     */
+    static boolean isHeaderDirective(String line) {
+        int start = 0;
+        while (start < line.length() && line.charAt(start) <= ' ') {
+            start++;
+        }
+        return line.startsWith(IMPORT, start) || line.startsWith(INCLUDE, start);
+    }
+
+    /**
+     * Returns true if the trimmed line starts with {@code @startuml} or is exactly {@code @enduml}.
+     */
+    static boolean isStartOrEndTag(String line) {
+        int start = 0;
+        int end = line.length();
+        while (start < end && line.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && line.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        return line.startsWith("@startuml", start)
+                || (end - start == 7 && line.startsWith("@enduml", start));
+    }
+
+    /**
+     * Returns true if the line has no characters other than whitespace and control characters.
+     */
+    static boolean isBlank(String line) {
+        for (int i = 0; i < line.length(); i++) {
+            if (line.charAt(i) > ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Finds the first {@code '}, optional whitespace, {@code @step}, whitespace and a brace-delimited
+     * object. Returns the index of the opening brace, or -1 if the line has no step marker.
+     */
+    private static int findStepMarker(String line) {
+        int quote = line.indexOf('\'');
+        while (quote >= 0) {
+            int keyword = skipWhitespace(line, quote + 1);
+            if (line.startsWith(STEP_KEYWORD, keyword)) {
+                int afterKeyword = keyword + STEP_KEYWORD.length();
+                int open = skipWhitespace(line, afterKeyword);
+                if (open > afterKeyword && open < line.length() && line.charAt(open) == '{'
+                        && closingBrace(line, open) >= 0) {
+                    return open;
+                }
+            }
+            quote = line.indexOf('\'', quote + 1);
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the index of the last closing brace after an opening brace, not crossing a line terminator,
+     * or -1 if there is none.
+     */
+    private static int closingBrace(String line, int open) {
+        int close = -1;
+        for (int i = open + 1; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (isLineTerminator(c)) {
+                break;
+            }
+            if (c == '}') {
+                close = i;
+            }
+        }
+        return close;
+    }
+
+    /**
+     * Returns true if the keyword, in any ASCII case, starts at the given index and is followed by
+     * whitespace and then a remainder without line terminators.
+     */
+    private static boolean isDeclaration(String line, int start, String keyword) {
+        int afterKeyword = start + keyword.length();
+        if (!regionMatchesAsciiIgnoreCase(line, start, keyword)) {
+            return false;
+        }
+        int rest = skipWhitespace(line, afterKeyword);
+        if (rest == afterKeyword) {
+            return false;
+        }
+        for (int i = rest; i < line.length(); i++) {
+            if (isLineTerminator(line.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if the trimmed range starts with the keyword, in any ASCII case, followed by a space
+     * and at least one more character.
+     */
+    private static boolean startsWithWord(String line, int start, int end, String keyword) {
+        int space = start + keyword.length();
+        // The trimmed range ends with a non-space character, so a space here is never the last one
+        return space < end && regionMatchesAsciiIgnoreCase(line, start, keyword) && line.charAt(space) == ' ';
+    }
+
+    private static boolean regionMatchesAsciiIgnoreCase(String line, int start, String lowerCaseKeyword) {
+        if (start + lowerCaseKeyword.length() > line.length()) {
+            return false;
+        }
+        for (int i = 0; i < lowerCaseKeyword.length(); i++) {
+            char c = line.charAt(start + i);
+            char expected = lowerCaseKeyword.charAt(i);
+            if (c != expected && !(expected >= 'a' && expected <= 'z' && c == expected - ('a' - 'A'))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Skips characters the patterns treated as whitespace: space, tab, newline, vertical tab,
+     * form feed and carriage return.
+     */
+    private static int skipWhitespace(String line, int index) {
+        while (index < line.length()) {
+            char c = line.charAt(index);
+            if (c != ' ' && c != '\t' && c != '\n' && c != '\u000B' && c != '\f' && c != '\r') {
+                break;
+            }
+            index++;
+        }
+        return index;
+    }
+
+    private static boolean isLineTerminator(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+}
@@ -0,0 +1,116 @@
+package com.example;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads the lines of a UTF-8 file through a reusable byte buffer. Line boundaries are found on the raw
+ * bytes, and lines with nothing but whitespace and control characters are skipped without being decoded,
+ * so only the lines the parser keeps become Strings. Lines end at {@code \n}, {@code \r} or {@code \r\n},
+ * as with {@link java.io.BufferedReader#readLine()}.
+ */
+final class LineScanner implements Closeable {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final ReadableByteChannel channel;
+    // In read mode between calls: position is the next unread byte, limit the end of the data read so far
+    private ByteBuffer buffer;
+    private boolean endOfInput;
+    private boolean skipLineFeed;
+
+    LineScanner(ReadableByteChannel channel, int bufferSize) {
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocate(bufferSize);
+        this.buffer.flip();
+    }
+
+    /**
+     * Opens a scanner for a file.
+     */
+    static LineScanner open(Path file) throws IOException {
+        return new LineScanner(FileChannel.open(file, StandardOpenOption.READ), BUFFER_SIZE);
+    }
+
+    /**
+     * Returns the next line that is not blank, without its terminator, or null at the end of the file.
+     * Malformed UTF-8 is decoded to replacement characters.
+     */
+    String nextLine() throws IOException {
+        while (true) {
+            byte[] bytes = buffer.array();
+            int limit = buffer.limit();
+            int start = buffer.position();
+            if (skipLineFeed && start < limit) {
+                // The previous line ended with a \r at the end of the buffer
+                skipLineFeed = false;
+                if (bytes[start] == '\n') {
+                    start++;
+                }
+            }
+
+            boolean blank = true;
+            for (int i = start; i < limit; i++) {
+                byte b = bytes[i];
+                if (b == '\n' || b == '\r') {
+                    int end = i;
+                    if (b == '\r') {
+                        if (i + 1 < limit) {
+                            if (bytes[i + 1] == '\n') {
+                                i++;
+                            }
+                        } else {
+                            skipLineFeed = true;
+                        }
+                    }
+                    if (!blank) {
+                        buffer.position(i + 1);
+                        return decode(bytes, start, end);
+                    }
+                    start = i + 1;
+                } else if ((b & 0xff) > ' ') {
+                    // Every byte of a multi-byte UTF-8 sequence is above the ASCII range
+                    blank = false;
+                }
+            }
+
+            if (endOfInput) {
+                buffer.position(limit);
+                return blank ? null : decode(bytes, start, limit);
+            }
+            buffer.position(start);
+            fill();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Reads more bytes after the unread ones, growing the buffer if a single line fills it.
+     */
+    private void fill() throws IOException {
+        buffer.compact();
+        if (!buffer.hasRemaining()) {
+            ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+            buffer.flip();
+            larger.put(buffer);
+            buffer = larger;
+        }
+        if (channel.read(buffer) < 0) {
+            endOfInput = true;
+        }
+        buffer.flip();
+    }
+
+    private static String decode(byte[] bytes, int start, int end) {
+        return new String(bytes, start, end - start, StandardCharsets.UTF_8);
+    }
+}
@@ -2,12 +2,39 @@ package com.example;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.stream.Stream;
 
 public class Main {
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("--serve")) {
+            StepDiagramServer.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--generate")) {
+            StepDiagramGenerator.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--cds-training")) {
+            try {
+                runTraining();
+            } catch (IOException e) {
+                System.err.println("Error in training run: " + e.getMessage());
+                System.exit(1);
+            }
+            return;
+        }
         if (args.length == 0) {
             System.out.println("Usage: java -jar plantumlsequence.jar <puml-file>");
+            System.out.println("       java -jar plantumlsequence.jar --generate [options] <input-file-or-directory> <output-directory>");
+            System.out.println("       java -jar plantumlsequence.jar --serve [--port <n>] [--bind <address>] [--max-renders <n>] [--cache-dir <dir>]");
+            System.out.println("       java -XX:ArchiveClassesAtExit=<archive> -jar plantumlsequence.jar --cds-training");
             System.out.println("Example PlantUML with steps: create a file with content:");
             System.out.println("@startuml");
             System.out.println("actor User");
@@ -58,4 +85,34 @@ public class Main {
             System.err.println("Error reading file: " + e.getMessage());
         }
     }
-} 
\ No newline at end of file
+
+    /**
+     * Renders a representative diagram into a temporary directory, loading the classes a generator run
+     * needs. Run with {@code -XX:ArchiveClassesAtExit}, the JVM then dumps those classes to a Class Data
+     * Sharing archive that later runs map at startup instead of loading and verifying each class.
+     */
+    private static void runTraining() throws IOException {
+        Path workDir = Files.createTempDirectory("step-diagrams-training");
+        try {
+            Path input = workDir.resolve("training.puml");
+            try (InputStream training = Main.class.getResourceAsStream("/training.puml")) {
+                if (training == null) {
+                    throw new IOException("Training diagram not found on the classpath");
+                }
+                Files.copy(training, input);
+            }
+            GeneratorOptions options = GeneratorOptions.defaults()
+                    .deriveCumulativeSteps(true)
+                    .bundleSteps(true)
+                    .minifySvg(true)
+                    .exportFormats(EnumSet.allOf(GeneratorOptions.ExportFormat.class));
+            new StepDiagramGenerator(options).generateFiles(List.of(input.toFile()), workDir.resolve("out").toFile());
+        } finally {
+            try (Stream<Path> paths = Files.walk(workDir)) {
+                for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+}
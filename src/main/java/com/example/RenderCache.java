@@ -0,0 +1,370 @@
+package com.example;
+
+import net.sourceforge.plantuml.version.Version;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Disk-backed cache of rendered SVGs, keyed by a hash of the complete PlantUML source, the files it
+ * still includes and the PlantUML version. Entries are evicted least recently used first once the cache
+ * exceeds its size bound. The last-modified time of each entry records its last use, so the LRU order
+ * survives restarts.
+ * <p>
+ * Several processes may share the directory. Each finds the entries the others store, and rebuilds
+ * its index from the directory whenever it is over the bound or has written a sixteenth of it since,
+ * so the bound holds for the directory as a whole.
+ */
+class RenderCache {
+    private static final String SUFFIX = ".svg";
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final int RESCAN_FRACTION = 16;
+    // The directives that make PlantUML read a file: includes of every kind, imports and themes from a directory
+    private static final Pattern FILE_REFERENCE = Pattern.compile(
+            "\\s*!(?:(include\\w*|import)\\s+(.+?)|theme\\s+(\\S+)\\s+from\\s+(.+?))\\s*", Pattern.CASE_INSENSITIVE);
+
+    private final Path directory;
+    private final long maxBytes;
+    private final LinkedHashMap<String, Long> entrySizes = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+    private long writtenSinceRescan;
+
+    private RenderCache(Path directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Opens the cache in the given directory, creating it if needed and indexing any existing entries.
+     */
+    static RenderCache open(Path directory, long maxBytes) throws IOException {
+        Files.createDirectories(directory);
+        RenderCache cache = new RenderCache(directory, maxBytes);
+        cache.rescan();
+        cache.evict(null);
+        return cache;
+    }
+
+    /**
+     * Returns the cache key for the complete PlantUML source of a diagram, or null if it cannot be cached.
+     * The files the source still includes are hashed into the key, as PlantUML will read them: relative
+     * to the working directory, and their own includes relative to themselves. A source including a URL
+     * has no key, as what it renders to can change at any time.
+     */
+    static String key(String source) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+        digest.update(Version.versionString().getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) '\n');
+        digest.update(source.getBytes(StandardCharsets.UTF_8));
+        if (!digestReferencedFiles(source, null, digest, new HashSet<>())) {
+            return null;
+        }
+        byte[] hash = digest.digest();
+        char[] hex = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++) {
+            hex[i * 2] = HEX[(hash[i] >> 4) & 0xf];
+            hex[i * 2 + 1] = HEX[hash[i] & 0xf];
+        }
+        return new String(hex);
+    }
+
+    /**
+     * Adds the path and content of every file a source refers to, and of the files they include, to a digest.
+     *
+     * @param baseDir The directory relative paths are resolved against, or null for the working directory
+     * @return false if the source refers to a URL or a file that cannot be read
+     */
+    private static boolean digestReferencedFiles(String source, File baseDir, MessageDigest digest, Set<File> digested) {
+        for (String line : source.split("\r\n|\r|\n")) {
+            if (line.indexOf('!') < 0) {
+                continue;
+            }
+            Matcher reference = FILE_REFERENCE.matcher(line);
+            if (!reference.matches()) {
+                continue;
+            }
+            boolean theme = reference.group(1) == null;
+            String path = unquote(theme ? reference.group(4) : reference.group(2));
+            if (path.startsWith("<")) {
+                // The standard library comes with PlantUML, whose version is part of the key
+                continue;
+            }
+            if (path.contains("://")) {
+                return false;
+            }
+            if (theme) {
+                path = new File(path, "puml-theme-" + reference.group(3) + ".puml").getPath();
+            } else if (path.indexOf('!') > 0) {
+                // A sub-part of a file: file.puml!part
+                path = path.substring(0, path.indexOf('!'));
+            }
+            File file = new File(path);
+            if (!file.isAbsolute()) {
+                file = baseDir != null ? new File(baseDir, path) : file.getAbsoluteFile();
+            }
+            file = file.toPath().normalize().toFile();
+            digest.update(file.getPath().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            if (!file.isFile() || !digested.add(file)) {
+                continue;
+            }
+            byte[] content;
+            try {
+                content = Files.readAllBytes(file.toPath());
+            } catch (IOException e) {
+                return false;
+            }
+            digest.update(content);
+            // Imported archives are hashed whole; included files and themes may include files of their own
+            boolean archive = !theme && reference.group(1).equalsIgnoreCase("import");
+            if (!archive && !digestReferencedFiles(new String(content, StandardCharsets.UTF_8),
+                    file.getParentFile(), digest, digested)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String unquote(String path) {
+        return path.length() > 1 && path.startsWith("\"") && path.endsWith("\"") ? path.substring(1, path.length() - 1) : path;
+    }
+
+    /**
+     * Copies the cached SVG for a key to the target file.
+     *
+     * @return true on a cache hit, false if the key is not cached
+     */
+    boolean copyTo(String key, Path target) throws IOException {
+        Path entry = lookup(key);
+        if (entry == null) {
+            return false;
+        }
+        try {
+            Files.copy(entry, target, StandardCopyOption.REPLACE_EXISTING);
+            return true;
+        } catch (NoSuchFileException e) {
+            // Evicted or removed by another process since the lookup
+            forget(key);
+            return false;
+        }
+    }
+
+    /**
+     * Returns the cached SVG for a key, or null if it is not cached.
+     */
+    byte[] read(String key) throws IOException {
+        Path entry = lookup(key);
+        if (entry == null) {
+            return null;
+        }
+        try {
+            return Files.readAllBytes(entry);
+        } catch (NoSuchFileException e) {
+            forget(key);
+            return null;
+        }
+    }
+
+    /**
+     * Stores a rendered SVG, evicting least recently used entries if the cache grows beyond its bound.
+     * Nothing is stored for a null key.
+     */
+    void put(String key, byte[] svg) throws IOException {
+        if (key == null) {
+            return;
+        }
+        Path entry = entryPath(key);
+        Path temp = Files.createTempFile(directory, key, ".tmp");
+        try {
+            Files.write(temp, svg);
+            try {
+                Files.move(temp, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, entry, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        try {
+            // Stamped like a use, so stores and uses are ordered by the same clock
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (NoSuchFileException e) {
+            // Evicted by another process already
+            return;
+        }
+
+        synchronized (this) {
+            Long previous = entrySizes.put(key, (long) svg.length);
+            totalBytes += svg.length - (previous != null ? previous : 0L);
+            writtenSinceRescan += svg.length;
+        }
+        evictOverflow(key);
+    }
+
+    /**
+     * Returns the total size of the cached SVGs in bytes.
+     */
+    synchronized long size() {
+        return totalBytes;
+    }
+
+    /**
+     * Rebuilds the index from the directory if this cache is over its bound or has written enough since
+     * it was last rebuilt, and then removes least recently used entries until the directory fits the bound.
+     */
+    private void evictOverflow(String keep) throws IOException {
+        synchronized (this) {
+            if (totalBytes <= maxBytes && writtenSinceRescan <= maxBytes / RESCAN_FRACTION) {
+                return;
+            }
+        }
+        rescan();
+        evict(keep);
+    }
+
+    /**
+     * Removes least recently used entries, other than the one just stored, until the cache fits its bound.
+     */
+    private void evict(String keep) throws IOException {
+        List<String> evicted = new ArrayList<>();
+        synchronized (this) {
+            Iterator<Map.Entry<String, Long>> eldest = entrySizes.entrySet().iterator();
+            while (totalBytes > maxBytes && eldest.hasNext()) {
+                Map.Entry<String, Long> candidate = eldest.next();
+                if (candidate.getKey().equals(keep)) {
+                    continue;
+                }
+                totalBytes -= candidate.getValue();
+                evicted.add(candidate.getKey());
+                eldest.remove();
+            }
+        }
+        for (String evictedKey : evicted) {
+            Files.deleteIfExists(entryPath(evictedKey));
+        }
+    }
+
+    private Path lookup(String key) throws IOException {
+        if (key == null) {
+            return null;
+        }
+        Path entry = entryPath(key);
+        try {
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (NoSuchFileException e) {
+            forget(key);
+            return null;
+        }
+        Long size;
+        synchronized (this) {
+            size = entrySizes.get(key);
+        }
+        if (size == null) {
+            // Stored by another process sharing the directory
+            try {
+                size = Files.size(entry);
+            } catch (NoSuchFileException e) {
+                return null;
+            }
+            synchronized (this) {
+                if (entrySizes.putIfAbsent(key, size) == null) {
+                    totalBytes += size;
+                }
+            }
+        }
+        return entry;
+    }
+
+    private synchronized void forget(String key) {
+        Long size = entrySizes.remove(key);
+        if (size != null) {
+            totalBytes -= size;
+        }
+    }
+
+    private Path entryPath(String key) {
+        return directory.resolve(key + SUFFIX);
+    }
+
+    /**
+     * Rebuilds the index from the entries in the directory, ordered by their last use. Entries other
+     * processes stored are added and those they evicted dropped; entries used within the same
+     * modification time keep the order this cache used them in.
+     */
+    private void rescan() throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Iterator<Path> paths = files.iterator(); paths.hasNext(); ) {
+                Path path = paths.next();
+                String fileName = path.getFileName().toString();
+                if (!fileName.endsWith(SUFFIX)) {
+                    continue;
+                }
+                try {
+                    entries.add(new Entry(fileName.substring(0, fileName.length() - SUFFIX.length()),
+                            Files.getLastModifiedTime(path), Files.size(path)));
+                } catch (NoSuchFileException e) {
+                    // Evicted by another process while listing
+                }
+            }
+        }
+
+        synchronized (this) {
+            Map<String, Integer> usedOrder = new HashMap<>();
+            for (String key : entrySizes.keySet()) {
+                usedOrder.put(key, usedOrder.size());
+            }
+            entries.sort(Comparator.comparing((Entry entry) -> entry.lastUsed)
+                    .thenComparing(entry -> usedOrder.getOrDefault(entry.key, -1)));
+            // Oldest first, so the access-ordered map starts in LRU order
+            entrySizes.clear();
+            totalBytes = 0;
+            for (Entry entry : entries) {
+                entrySizes.put(entry.key, entry.size);
+                totalBytes += entry.size;
+            }
+            writtenSinceRescan = 0;
+        }
+    }
+
+    /**
+     * An entry found in the directory.
+     */
+    private static final class Entry {
+        private final String key;
+        private final FileTime lastUsed;
+        private final long size;
+
+        Entry(String key, FileTime lastUsed, long size) {
+            this.key = key;
+            this.lastUsed = lastUsed;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.example;
+
+/**
+ * A step diagram rendered in memory: the composed PlantUML source and its SVG.
+ */
+public class RenderedStep {
+    private final Step step;
+    private final String fileName;
+    private final String source;
+    private final byte[] svg;
+
+    RenderedStep(Step step, String fileName, String source, byte[] svg) {
+        this.step = step;
+        this.fileName = fileName;
+        this.source = source;
+        this.svg = svg;
+    }
+
+    /**
+     * Returns the parsed step this diagram was rendered from.
+     */
+    public Step getStep() {
+        return step;
+    }
+
+    /**
+     * Returns the name of the step.
+     */
+    public String getName() {
+        return step.getName();
+    }
+
+    /**
+     * Returns the file name, without extension, the generator uses for this step,
+     * e.g. {@code step-01-user-login}.
+     */
+    public String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * Returns the complete PlantUML source that was rendered, including @startuml and @enduml.
+     */
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * Returns the rendered SVG.
+     */
+    public byte[] getSvg() {
+        return svg.clone();
+    }
+}
@@ -1,9 +1,13 @@
 package com.example;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.Predicate;
 
 /**
  * Represents a single step in a PlantUML sequence diagram.
@@ -18,6 +22,9 @@ public class Step {
     private final StepMetadata metadata;
     private final List<String> content;
     private final List<String> declarations;
+    // Content shared with the step this one continues, placed after the first inheritedAt lines
+    private InheritedContent inherited;
+    private int inheritedAt;
 
     /**
      * Creates a new Step with the given metadata.
@@ -50,10 +57,15 @@ public class Step {
     }
 
     /**
-     * Returns the content lines for this step.
+     * Returns the content lines for this step. For a step continuing others, the list is a view of
+     * the lines shared along the chain: iterating it is linear in its size, and the first indexed
+     * access copies the lines into the view once, so that later indexed accesses take constant time.
      */
     public List<String> getContent() {
-        return Collections.unmodifiableList(content);
+        if (inherited == null) {
+            return Collections.unmodifiableList(content);
+        }
+        return new ContentView();
     }
 
     /**
@@ -98,8 +110,21 @@ public class Step {
      * Checks if a line is a @startuml or @enduml tag.
      */
     private boolean isStartOrEndTag(String line) {
-        String trimmed = line.trim();
-        return trimmed.startsWith("@startuml") || trimmed.equals("@enduml");
+        return LineClassifier.isStartOrEndTag(line);
+    }
+
+    /**
+     * Continues the content of a previous step: its lines, except those the filter excludes,
+     * follow the lines added to this step so far. The previous step's lines are shared, not
+     * copied, so a chain of continuing steps holds each source line only once.
+     * Lines added to the previous step afterwards are not seen by this step.
+     */
+    void continueFrom(Step previous, Predicate<String> excluded) {
+        if (inherited != null) {
+            throw new IllegalStateException("Step already continues a previous step: " + getName());
+        }
+        inherited = new InheritedContent(previous, excluded);
+        inheritedAt = content.size();
     }
 
     /**
@@ -114,7 +139,7 @@ public class Step {
         }
 
         // Add content
-        for (String line : content) {
+        for (String line : getContent()) {
             builder.append(line).append("\n");
         }
 
@@ -126,7 +151,7 @@ public class Step {
         return "Step{" +
                 "name='" + getName() + '\'' +
                 ", newPage=" + isNewPage() +
-                ", content size=" + content.size() +
+                ", content size=" + getContent().size() +
                 ", declarations size=" + declarations.size() +
                 '}';
     }
@@ -137,4 +162,154 @@ public class Step {
             addContent(preambleLine);
         }
     }
+
+    /**
+     * The filtered content of a previous step, captured when a step continues it. Each node refers
+     * to the previous step's own lines and to the content that step inherited in turn, so the whole
+     * chain is linear in the number of source lines.
+     */
+    private static final class InheritedContent {
+        private final List<String> lines;
+        private final int split;
+        private final int count;
+        private final InheritedContent parent;
+        private final Predicate<String> excluded;
+        private final int size;
+
+        InheritedContent(Step step, Predicate<String> excluded) {
+            this.lines = step.content;
+            this.count = step.content.size();
+            this.split = step.inherited != null ? step.inheritedAt : count;
+            this.parent = step.inherited;
+            this.excluded = excluded;
+
+            int included = 0;
+            for (int i = 0; i < count; i++) {
+                if (!excluded.test(lines.get(i))) {
+                    included++;
+                }
+            }
+            this.size = included + (parent != null ? parent.size : 0);
+        }
+    }
+
+    /**
+     * Read-only view of this step's content: its lines before the inherited content, the inherited
+     * content of every step in the chain, then its lines after the inherited content.
+     * Iteration walks the chain; indexed access walks it once and then reads a copy.
+     */
+    private final class ContentView extends AbstractList<String> {
+        private final int size = content.size() + inherited.size;
+        private String[] lines;
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public String get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            }
+            if (lines == null) {
+                String[] copy = new String[size];
+                Iterator<String> iterator = iterator();
+                for (int i = 0; i < size; i++) {
+                    copy[i] = iterator.next();
+                }
+                lines = copy;
+            }
+            return lines[index];
+        }
+
+        @Override
+        public Iterator<String> iterator() {
+            return new ContentIterator();
+        }
+    }
+
+    /**
+     * Walks the chain without recursion. For a chain of inherited nodes n1 (this step's) to nk,
+     * the order is: this step's head lines, the heads of n1..nk, the tails of nk..n1, then this
+     * step's tail lines, where a node's head and tail are the lines before and after its own split.
+     */
+    private final class ContentIterator implements Iterator<String> {
+        private final InheritedContent[] chain;
+        private final int ownCount = content.size();
+        // Segment -1 is this step's head, 0..2k-1 are the chain's heads then tails, 2k is this step's tail
+        private int segment = -1;
+        private int position = 0;
+        private String next;
+
+        ContentIterator() {
+            int depth = 0;
+            for (InheritedContent node = inherited; node != null; node = node.parent) {
+                depth++;
+            }
+            chain = new InheritedContent[depth];
+            int i = 0;
+            for (InheritedContent node = inherited; node != null; node = node.parent) {
+                chain[i++] = node;
+            }
+            advance();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public String next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            String line = next;
+            advance();
+            return line;
+        }
+
+        private void advance() {
+            next = null;
+            while (segment <= 2 * chain.length) {
+                List<String> lines;
+                int end;
+                Predicate<String> excluded = null;
+                if (segment == -1) {
+                    lines = content;
+                    end = inheritedAt;
+                } else if (segment == 2 * chain.length) {
+                    lines = content;
+                    end = ownCount;
+                    if (position < inheritedAt) {
+                        position = inheritedAt;
+                    }
+                } else if (segment < chain.length) {
+                    InheritedContent node = chain[segment];
+                    lines = node.lines;
+                    end = node.split;
+                    excluded = node.excluded;
+                } else {
+                    InheritedContent node = chain[2 * chain.length - 1 - segment];
+                    lines = node.lines;
+                    end = node.count;
+                    excluded = node.excluded;
+                    if (position < node.split) {
+                        position = node.split;
+                    }
+                }
+
+                while (position < end) {
+                    String line = lines.get(position++);
+                    if (excluded == null || !excluded.test(line)) {
+                        next = line;
+                        return;
+                    }
+                }
+                segment++;
+                position = 0;
+            }
+        }
+    }
 }
\ No newline at end of file
@@ -2,17 +2,37 @@ package com.example;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
 
 public class StepBuilder {
+    private final Consumer<Step> completedSteps;
     private final List<Step> steps = new ArrayList<>();
     private final List<String> globalDeclarations = new ArrayList<>();
     private final List<String> header = new ArrayList<>();
     private final List<String> participantDeclarations = new ArrayList<>();
     private Step currentStep = null;
+    private Step previousStep = null;
+
+    /**
+     * Creates a builder that collects the steps for {@link #build()}.
+     */
+    public StepBuilder() {
+        this.completedSteps = steps::add;
+    }
+
+    /**
+     * Creates a builder that hands each step to the consumer as soon as it is complete, that is when
+     * the next step starts or {@link #finish()} is called. Only the previous step is retained, so
+     * {@link #build()} returns no steps.
+     */
+    public StepBuilder(Consumer<Step> completedSteps) {
+        this.completedSteps = completedSteps;
+    }
 
     public void startNewStep(StepMetadata metadata) {
         if (currentStep != null) {
-            steps.add(currentStep);
+            previousStep = currentStep;
+            completedSteps.accept(currentStep);
         }
 
         currentStep = new Step(metadata);
@@ -28,22 +48,15 @@ public class StepBuilder {
             currentStep.addContent(participant);
         }
 
-        if (!metadata.isNewPage() && !steps.isEmpty()) {
-            // Copy content from the previous step
-            Step previousStep = steps.get(steps.size() - 1);
-            for (String contentLine : previousStep.getContent()) {
-                // Skip participant declarations that were already added
-                if (!isParticipantDeclaration(contentLine)) {
-                    currentStep.addContent(contentLine);
-                }
-            }
+        if (!metadata.isNewPage() && previousStep != null) {
+            // Continue the content of the previous step, sharing its lines instead of copying them
+            // and skipping participant declarations that were already added
+            currentStep.continueFrom(previousStep, StepBuilder::isParticipantDeclaration);
         }
     }
 
-    private boolean isParticipantDeclaration(String line) {
-        String trimmed = line.trim().toLowerCase();
-        return trimmed.startsWith("participant ") || 
-               trimmed.startsWith("actor ");
+    private static boolean isParticipantDeclaration(String line) {
+        return LineClassifier.isParticipantDeclaration(line);
     }
 
     public void addDeclaration(String declaration) {
@@ -77,21 +90,25 @@ public class StepBuilder {
 
     private void addHeaderLine(String line) {
         // Before the first step, store lines like imports and includes
-        // Skip @startuml and @enduml as they're added by the generator
-        String trimmedLine = line.trim();
-        if ((trimmedLine.startsWith("!import") || 
-             trimmedLine.startsWith("!include")) && 
-            !trimmedLine.startsWith("@startuml") && 
-            !trimmedLine.startsWith("@enduml")) {
+        // @startuml and @enduml are never directives; they're added by the generator
+        if (LineClassifier.isHeaderDirective(line)) {
             header.add(line);
         }
     }
 
-    public List<Step> build() {
+    /**
+     * Completes the last step.
+     */
+    public void finish() {
         if (currentStep != null) {
-            steps.add(currentStep);
+            previousStep = currentStep;
+            completedSteps.accept(currentStep);
+            currentStep = null;
         }
+    }
 
+    public List<Step> build() {
+        finish();
         return new ArrayList<>(steps);
     }
 }
\ No newline at end of file
@@ -0,0 +1,68 @@
+package com.example;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * All step SVGs of a diagram in one gzipped file, which the viewer loads once and cuts the steps out of.
+ * <p>
+ * The SVGs are compressed as a single stream, so the messages each step repeats from the step before it
+ * compress to little more than references. The file is a script calling {@code stepBundleLoaded} with the
+ * base64 of the compressed SVGs, so the viewer can load it with a script tag, which browsers allow for
+ * pages opened from the file system where they refuse to fetch.
+ */
+final class StepBundle {
+    static final String FILE_NAME = "steps.bundle.js";
+
+    private final List<Integer> lengths;
+
+    private StepBundle(List<Integer> lengths) {
+        this.lengths = lengths;
+    }
+
+    /**
+     * Writes the bundle of the given step SVGs, in step order, to the output directory.
+     *
+     * @param outputDir The directory the viewer is written to
+     * @param svgs The SVG of each step, in step order
+     * @return The bundle, to pass to the viewer
+     * @throws IOException If the bundle cannot be written
+     */
+    static StepBundle write(File outputDir, List<byte[]> svgs) throws IOException {
+        List<Integer> lengths = new ArrayList<>();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+            for (byte[] svg : svgs) {
+                lengths.add(svg.length);
+                gzip.write(svg);
+            }
+        }
+
+        try (OutputStream output = new FileOutputStream(new File(outputDir, FILE_NAME))) {
+            output.write("stepBundleLoaded(\"".getBytes(StandardCharsets.US_ASCII));
+            output.write(Base64.getEncoder().encode(compressed.toByteArray()));
+            output.write("\");\n".getBytes(StandardCharsets.US_ASCII));
+        }
+        return new StepBundle(lengths);
+    }
+
+    /**
+     * Returns the viewer's description of the bundle: its file and the length in bytes of each step's SVG.
+     */
+    Map<String, Object> toJson() {
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("file", FILE_NAME);
+        json.put("lengths", lengths);
+        return json;
+    }
+}
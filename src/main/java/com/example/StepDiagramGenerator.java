@@ -3,16 +3,38 @@ package com.example;
 import com.google.gson.Gson;
 import net.sourceforge.plantuml.FileFormat;
 import net.sourceforge.plantuml.FileFormatOption;
+import net.sourceforge.plantuml.BlockUml;
 import net.sourceforge.plantuml.SourceStringReader;
+import net.sourceforge.plantuml.core.Diagram;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * Generates step diagrams from PlantUML files with step markers.
@@ -21,18 +43,128 @@ import java.util.Map;
 public class StepDiagramGenerator {
     
     private static final String VIEWER_TEMPLATE = "/templates/viewer-template.html";
+    /** Lists the files a diagram includes, relative to the diagram's directory, in its output directory. */
+    static final String INCLUDES_FILE_NAME = "includes.txt";
+    
+    private final GeneratorOptions options;
+    private RenderCache renderCache;
+    private final Map<File, String> renderedSources = new ConcurrentHashMap<>();
+    private final Map<File, StyleContext> styles = new ConcurrentHashMap<>();
+    private final IncludeCache includes = new IncludeCache();
+    private final Map<File, Set<IncludeCache.Dependency>> diagramIncludes = new ConcurrentHashMap<>();
+    
+    /**
+     * Creates a generator with the given options.
+     */
+    public StepDiagramGenerator(GeneratorOptions options) {
+        this.options = options;
+    }
     
     public static void main(String[] args) {
-        if (args.length != 2) {
-            System.err.println("Usage: StepDiagramGenerator <input-puml-file> <output-directory>");
+        GeneratorOptions options = GeneratorOptions.defaults();
+        List<String> paths = new ArrayList<>();
+        File cacheDirectory = null;
+        long cacheMaxBytes = options.getCacheMaxBytes();
+        File filesFrom = null;
+        boolean watch = false;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("--threads") && i + 1 < args.length) {
+                    options.renderThreads(Integer.parseInt(args[++i]));
+                } else if (args[i].equals("--no-step-sources")) {
+                    options.writeStepSources(false);
+                } else if (args[i].equals("--cache-dir") && i + 1 < args.length) {
+                    cacheDirectory = new File(args[++i]);
+                } else if (args[i].equals("--cache-max-mb") && i + 1 < args.length) {
+                    cacheMaxBytes = Long.parseLong(args[++i]) * 1024 * 1024;
+                } else if (args[i].equals("--watch")) {
+                    watch = true;
+                } else if (args[i].equals("--files-from") && i + 1 < args.length) {
+                    filesFrom = new File(args[++i]);
+                } else if (args[i].equals("--report") && i + 1 < args.length) {
+                    options.timingReport(new File(args[++i]));
+                } else if (args[i].equals("--derive-steps")) {
+                    options.deriveCumulativeSteps(true);
+                } else if (args[i].equals("--bundle")) {
+                    options.bundleSteps(true);
+                } else if (args[i].equals("--gzip")) {
+                    options.compression(GeneratorOptions.Compression.GZIP_ALONGSIDE);
+                } else if (args[i].equals("--gzip-only")) {
+                    options.compression(GeneratorOptions.Compression.GZIP_ONLY);
+                } else if (args[i].equals("--minify")) {
+                    options.minifySvg(true);
+                } else if (args[i].equals("--export") && i + 1 < args.length) {
+                    Set<GeneratorOptions.ExportFormat> formats = EnumSet.noneOf(GeneratorOptions.ExportFormat.class);
+                    for (String format : args[++i].split(",")) {
+                        formats.add(GeneratorOptions.ExportFormat.valueOf(format.trim().toUpperCase(Locale.ROOT)));
+                    }
+                    options.exportFormats(formats);
+                } else if (args[i].equals("--dpi") && i + 1 < args.length) {
+                    options.exportDpi(Float.parseFloat(args[++i]));
+                } else if (args[i].equals("--thumbnail-width") && i + 1 < args.length) {
+                    options.thumbnailWidth(Integer.parseInt(args[++i]));
+                } else if (args[i].equals("--export-threads") && i + 1 < args.length) {
+                    options.exportThreads(Integer.parseInt(args[++i]));
+                } else if (args[i].equals("--style") && i + 1 < args.length) {
+                    options.styleFile(new File(args[++i]));
+                } else {
+                    paths.add(args[i]);
+                }
+            }
+            if (cacheDirectory != null) {
+                options.renderCache(cacheDirectory, cacheMaxBytes);
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println("Invalid option: " + e.getMessage());
             System.exit(1);
         }
         
-        String inputFile = args[0];
-        String outputDir = args[1];
+        if (paths.size() != 2) {
+            System.err.println("Usage: StepDiagramGenerator [options] <input-puml-file> <output-directory>");
+            System.err.println("       StepDiagramGenerator [options] <input-directory> <output-root-directory>");
+            System.err.println("Options:");
+            System.err.println("  --threads <n>        Render step diagrams on n threads (default 1)");
+            System.err.println("  --no-step-sources    Do not write the intermediate .puml file for each step");
+            System.err.println("  --cache-dir <dir>    Reuse SVGs rendered from identical step sources in earlier runs");
+            System.err.println("  --cache-max-mb <n>   Size bound of the render cache (default 256)");
+            System.err.println("  --files-from <file>  Only generate the files listed, one path per line, relative to the input directory");
+            System.err.println("  --watch              Keep running and regenerate diagrams in the input directory as they change");
+            System.err.println("  --report <file>      Write a JSON report of time spent per file, step and phase, and print a summary");
+            System.err.println("  --derive-steps       Lay out each run of continuing steps once and derive the earlier steps' SVGs from it");
+            System.err.println("  --bundle             Also bundle all step SVGs into one compressed file the viewer loads once");
+            System.err.println("  --gzip               Also write a gzipped .gz copy of each SVG and viewer, for servers of precompressed files");
+            System.err.println("  --gzip-only          Write only the gzipped .gz SVGs and viewers");
+            System.err.println("  --minify             Strip comments, embedded source and defaults from SVGs, and number their IDs in order");
+            System.err.println("  --export <formats>   Also export each SVG to png, pdf or both (comma separated), without laying it out again");
+            System.err.println("  --dpi <n>            Resolution of PNG exports (default 96, the SVG's own size)");
+            System.err.println("  --thumbnail-width <px>  Also export a PNG thumbnail of each SVG, this many pixels wide");
+            System.err.println("  --export-threads <n> Export on n threads (default: available processors)");
+            System.err.println("  --style <file>       Style applied to every diagram (default: style.puml in the parent of each diagram's directory)");
+            System.exit(1);
+        }
+        
+        File input = new File(paths.get(0));
+        File output = new File(paths.get(1));
         
         try {
-            generateStepDiagrams(new File(inputFile), new File(outputDir));
+            StepDiagramGenerator generator = new StepDiagramGenerator(options);
+            if (watch) {
+                try (DiagramWatcher watcher = new DiagramWatcher(input, output, options)) {
+                    watcher.run();
+                }
+            } else if (filesFrom != null) {
+                List<File> pumlFiles = new ArrayList<>();
+                for (String relativePath : Files.readAllLines(filesFrom.toPath())) {
+                    if (!relativePath.isBlank()) {
+                        pumlFiles.add(new File(input, relativePath.trim()));
+                    }
+                }
+                generator.generateFiles(pumlFiles, output);
+            } else if (input.isDirectory()) {
+                generator.generateTree(input, output);
+            } else {
+                generator.generate(input, output);
+            }
         } catch (IOException e) {
             System.err.println("Error generating step diagrams: " + e.getMessage());
             System.exit(1);
@@ -40,29 +172,211 @@ public class StepDiagramGenerator {
     }
     
     /**
-     * Generates step diagrams for a PlantUML file.
+     * Generates step diagrams for every .puml file under a directory tree using the default options.
+     * 
+     * @param inputRoot The directory to search for PlantUML files
+     * @param outputRoot The directory under which per-file output directories are created
+     * @throws IOException If there's an error reading or writing files
+     */
+    public static void generateStepDiagramsForTree(File inputRoot, File outputRoot) throws IOException {
+        new StepDiagramGenerator(GeneratorOptions.defaults()).generateTree(inputRoot, outputRoot);
+    }
+    
+    /**
+     * Generates step diagrams for a PlantUML file using the default options.
      * 
      * @param inputFile The input PlantUML file
      * @param outputDir The directory where step diagrams will be generated
      * @throws IOException If there's an error reading or writing files
      */
     public static void generateStepDiagrams(File inputFile, File outputDir) throws IOException {
-        if (!outputDir.exists()) {
-            outputDir.mkdirs();
+        new StepDiagramGenerator(GeneratorOptions.defaults()).generate(inputFile, outputDir);
+    }
+    
+    /**
+     * Generates step diagrams for every .puml file under a directory tree in this JVM.
+     * Each file gets its own output directory, named after the file, under the output root.
+     * 
+     * @param inputRoot The directory to search for PlantUML files
+     * @param outputRoot The directory under which per-file output directories are created
+     * @throws IOException If there's an error reading or writing files
+     */
+    public void generateTree(File inputRoot, File outputRoot) throws IOException {
+        if (!inputRoot.isDirectory()) {
+            throw new IOException("Input directory not found: " + inputRoot.getAbsolutePath());
+        }
+        
+        generateFiles(findPumlFiles(inputRoot), outputRoot);
+    }
+    
+    /**
+     * Generates step diagrams for the given .puml files in this JVM.
+     * Each file gets its own output directory, named after the file, under the output root.
+     * 
+     * @param pumlFiles The PlantUML files to generate
+     * @param outputRoot The directory under which per-file output directories are created
+     * @throws IOException If there's an error reading or writing files
+     */
+    public void generateFiles(List<File> pumlFiles, File outputRoot) throws IOException {
+        GenerationReport report = new GenerationReport();
+        ExecutorService renderExecutor = newRenderExecutor();
+        SvgExporter exporter = options.isExporting() ? new SvgExporter(options) : null;
+        try {
+            for (File pumlFile : pumlFiles) {
+                generate(pumlFile, new File(outputRoot, baseName(pumlFile)), renderExecutor, exporter, report);
+            }
+            if (exporter != null) {
+                exporter.awaitAll();
+            }
+        } finally {
+            renderExecutor.shutdown();
+            if (exporter != null) {
+                exporter.close();
+            }
+        }
+        writeReport(report);
+    }
+    
+    /**
+     * Generates step diagrams for a PlantUML file.
+     * 
+     * @param inputFile The input PlantUML file
+     * @param outputDir The directory where step diagrams will be generated
+     * @throws IOException If there's an error reading or writing files
+     */
+    public void generate(File inputFile, File outputDir) throws IOException {
+        GenerationReport report = new GenerationReport();
+        ExecutorService renderExecutor = newRenderExecutor();
+        SvgExporter exporter = options.isExporting() ? new SvgExporter(options) : null;
+        try {
+            generate(inputFile, outputDir, renderExecutor, exporter, report);
+            if (exporter != null) {
+                exporter.awaitAll();
+            }
+        } finally {
+            renderExecutor.shutdown();
+            if (exporter != null) {
+                exporter.close();
+            }
+        }
+        writeReport(report);
+    }
+    
+    /**
+     * Finds all .puml files under a directory, in a stable order.
+     */
+    static List<File> findPumlFiles(File inputRoot) throws IOException {
+        try (Stream<Path> paths = Files.walk(inputRoot.toPath())) {
+            return paths.filter(Files::isRegularFile)
+                    .filter(path -> path.getFileName().toString().endsWith(".puml"))
+                    .sorted()
+                    .map(Path::toFile)
+                    .collect(Collectors.toList());
+        }
+    }
+    
+    /**
+     * Returns the file name without its extension.
+     */
+    static String baseName(File file) {
+        String fileName = file.getName();
+        int dot = fileName.lastIndexOf('.');
+        return dot > 0 ? fileName.substring(0, dot) : fileName;
+    }
+    
+    /**
+     * Creates the executor that renders SVGs. With a single render thread the
+     * executor runs each render on the calling thread, in submission order.
+     */
+    private ExecutorService newRenderExecutor() {
+        int threads = options.getRenderThreads();
+        if (threads == 1) {
+            return new CallerRunsExecutor();
         }
+        AtomicInteger threadCount = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "step-render-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+    
+    /**
+     * Renders every step of PlantUML source text in memory, without touching the filesystem.
+     * No style file is applied; the source is rendered as written.
+     * 
+     * @param source PlantUML source with optional step markers
+     * @return The rendered steps, in step order
+     * @throws IOException If the source cannot be parsed or rendered
+     */
+    public List<RenderedStep> renderSteps(String source) throws IOException {
+        List<Future<RenderedStep>> renders = new ArrayList<>();
+        
+        ExecutorService renderExecutor = newRenderExecutor();
+        try (Stream<Step> steps = new StepParser().streamString(source)) {
+            Iterator<Step> stepIterator = steps.iterator();
+            for (int i = 0; stepIterator.hasNext(); i++) {
+                Step step = stepIterator.next();
+                String fileName = stepFileName(i, step);
+                renders.add(renderExecutor.submit(() -> {
+                    String stepSource = composeStepSource("", step);
+                    return new RenderedStep(step, fileName, stepSource, renderSvg(stepSource));
+                }));
+            }
+            
+            List<RenderedStep> rendered = new ArrayList<>();
+            for (Future<RenderedStep> render : renders) {
+                rendered.add(awaitRender(render));
+            }
+            return rendered;
+        } finally {
+            renderExecutor.shutdown();
+        }
+    }
+    
+    /**
+     * Renders every step of PlantUML source text, streaming each SVG to an output supplied by the caller.
+     * No style file is applied; the source is rendered as written.
+     * 
+     * @param source PlantUML source with optional step markers
+     * @param output Supplies the stream each step's SVG is written to
+     * @throws IOException If the source cannot be parsed or rendered, or an output cannot be written
+     */
+    public void renderSteps(String source, StepOutput output) throws IOException {
+        List<Future<?>> renders = new ArrayList<>();
         
-        // Read the style file from the root diagrams directory
-        File styleFile = new File(inputFile.getParentFile().getParentFile(), "style.puml");
-        String styleContent = "";
-        if (styleFile.exists()) {
-            styleContent = Files.readString(styleFile.toPath());
-            // Remove @startuml and @enduml from style content if present
-            styleContent = styleContent.replaceAll("@startuml\\s*", "").replaceAll("@enduml\\s*", "");
+        ExecutorService renderExecutor = newRenderExecutor();
+        try (Stream<Step> steps = new StepParser().streamString(source)) {
+            Iterator<Step> stepIterator = steps.iterator();
+            for (int i = 0; stepIterator.hasNext(); i++) {
+                int index = i;
+                Step step = stepIterator.next();
+                renders.add(renderExecutor.submit(() -> {
+                    try (OutputStream svg = output.open(index, step, stepFileName(index, step))) {
+                        renderSvg(composeStepSource("", step), svg);
+                    }
+                    return null;
+                }));
+            }
+            
+            for (Future<?> render : renders) {
+                awaitRender(render);
+            }
+        } finally {
+            renderExecutor.shutdown();
+        }
+    }
+    
+    private void generate(File inputFile, File outputDir, ExecutorService renderExecutor, SvgExporter exporter,
+                          GenerationReport report) throws IOException {
+        GenerationReport.FileTiming fileTiming = report.startFile(inputFile);
+        if (!outputDir.exists()) {
+            outputDir.mkdirs();
         }
         
-        // Get the file name without extension
-        String fileName = inputFile.getName();
-        String dirName = fileName.substring(0, fileName.lastIndexOf('.'));
+        StyleContext style = styleFor(inputFile);
+        File diagramDir = inputFile.getAbsoluteFile().getParentFile();
+        Set<IncludeCache.Dependency> included = new LinkedHashSet<>();
         
         // Create the target directory structure
         File targetDir = outputDir;
@@ -70,103 +384,546 @@ public class StepDiagramGenerator {
             targetDir.mkdirs();
         }
         
-        StepParser parser = new StepParser();
-        List<Step> steps = parser.parseFile(inputFile);
         List<Map<String, String>> stepMetadata = new ArrayList<>();
+        List<String> stepNames = new ArrayList<>();
+        List<String> stepFileNames = new ArrayList<>();
+        List<Future<?>> renders = new ArrayList<>();
+        // Steps continuing each other, held back until their last step is known to render them together
+        List<StepRender> run = new ArrayList<>();
         
-        // Generate a diagram for each step
-        for (int i = 0; i < steps.size(); i++) {
-            Step step = steps.get(i);
-            String stepFileName = String.format("step-%02d-%s", 
-                    i + 1, 
-                    step.getName().toLowerCase().replaceAll("[^a-z0-9]+", "-"));
-            
-            // Generate PlantUML file in the target directory
-            File pumlFile = new File(targetDir, stepFileName + ".puml");
-            try (FileWriter writer = new FileWriter(pumlFile)) {
-                writer.write("@startuml\n");
-                // Include the style content first
-                if (!styleContent.isEmpty()) {
-                    writer.write(styleContent);
-                    writer.write("\n");
+        // Generate a diagram for each step, rendering it while the following steps are parsed
+        try (Stream<Step> steps = new StepParser().streamFile(inputFile)) {
+            Iterator<Step> stepIterator = fileTiming.timeParsing(steps.iterator());
+            for (int i = 0; stepIterator.hasNext(); i++) {
+                Step step = stepIterator.next();
+                String stepFileName = stepFileName(i, step);
+                GenerationReport.StepTiming timing = fileTiming.startStep(step.getName());
+                long composeStart = System.nanoTime();
+                String source = includes.expand(composeStepSource(style, step), diagramDir, included);
+                timing.add(GenerationReport.Phase.COMPOSE, System.nanoTime() - composeStart);
+                
+                StepRender render = new StepRender(step.getName(), source,
+                        new File(targetDir, stepFileName + ".puml"), new File(targetDir, stepFileName + ".svg"), timing);
+                if (options.isDeriveCumulativeSteps()) {
+                    if (step.isNewPage() && !run.isEmpty()) {
+                        renders.addAll(submitRun(run, renderExecutor));
+                        run = new ArrayList<>();
+                    }
+                    run.add(render);
+                } else {
+                    renders.add(submitStep(render, renderExecutor));
                 }
-                writer.write("title " + step.getName() + "\n\n");
-                writer.write(step.generatePlantUML());
-                writer.write("@enduml\n");
+                stepNames.add(step.getName());
+                stepFileNames.add(stepFileName);
+                
+                // Add step metadata for the viewer
+                Map<String, String> metadata = new HashMap<>();
+                metadata.put("name", step.getName());
+                metadata.put("svgPath", outputFile(new File(stepFileName + ".svg")).getPath());
+                stepMetadata.add(metadata);
             }
-            
-            // Generate SVG file
-            File svgFile = new File(targetDir, stepFileName + ".svg");
-            generateSvg(pumlFile, svgFile);
-            
-            // Add step metadata for the viewer
-            Map<String, String> metadata = new HashMap<>();
-            metadata.put("name", step.getName());
-            metadata.put("svgPath", stepFileName + ".svg");
-            stepMetadata.add(metadata);
-            
-            System.out.println("Generated step diagram: " + pumlFile.getAbsolutePath());
-            System.out.println("Generated SVG: " + svgFile.getAbsolutePath());
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        if (!run.isEmpty()) {
+            renders.addAll(submitRun(run, renderExecutor));
         }
+        recordIncludes(inputFile, targetDir, included);
         
         // Generate summary diagram in the target directory
+        GenerationReport.StepTiming summaryTiming = fileTiming.startStep("Summary");
+        long composeStart = System.nanoTime();
+        String summarySource = composeSummarySource(inputFile.getName(), stepNames);
+        summaryTiming.add(GenerationReport.Phase.COMPOSE, System.nanoTime() - composeStart);
         File summaryFile = new File(targetDir, "summary.puml");
-        try (FileWriter writer = new FileWriter(summaryFile)) {
-            writer.write("@startuml\n");
-            writer.write("!theme plain\n");
-            writer.write("title " + inputFile.getName() + " - Step Flow\n");
-            writer.write("skinparam monochrome true\n");
-            writer.write("skinparam shadowing false\n");
-            writer.write("skinparam defaultFontName Arial\n");
-            writer.write("skinparam defaultFontSize 12\n");
-            writer.write("\n");
-            
-            for (int i = 0; i < steps.size(); i++) {
-                Step step = steps.get(i);
-                writer.write("rectangle \"" + step.getName() + "\" as step" + (i + 1) + "\n");
-            }
-            
-            for (int i = 0; i < steps.size() - 1; i++) {
-                writer.write("step" + (i + 1) + " --> step" + (i + 2) + "\n");
+        File summarySvgFile = new File(targetDir, "summary.svg");
+        renders.add(renderExecutor.submit(() -> {
+            writeStepSource(summarySource, summaryFile, summaryTiming);
+            renderSvg(summarySource, summarySvgFile, summaryTiming);
+            return null;
+        }));
+        
+        // Wait for every render, then report them in step order
+        for (Future<?> render : renders) {
+            awaitRender(render);
+        }
+        for (String stepFileName : stepFileNames) {
+            if (options.isWriteStepSources()) {
+                System.out.println("Generated step diagram: " + new File(targetDir, stepFileName + ".puml").getAbsolutePath());
             }
-            
-            writer.write("@enduml\n");
+            System.out.println("Generated SVG: " + outputFile(new File(targetDir, stepFileName + ".svg")).getAbsolutePath());
         }
         
-        // Generate SVG for summary
-        File summarySvgFile = new File(targetDir, "summary.svg");
-        generateSvg(summaryFile, summarySvgFile);
+        // Export the SVGs on the export threads, while the viewer and any following files are generated
+        if (exporter != null) {
+            for (String stepFileName : stepFileNames) {
+                export(exporter, new File(targetDir, stepFileName + ".svg"));
+            }
+            export(exporter, summarySvgFile);
+        }
         
         // Generate HTML viewer in the target directory
-        generateHtmlViewer(targetDir, stepMetadata);
+        long viewerStart = System.nanoTime();
+        StepBundle bundle = null;
+        if (options.isBundleSteps()) {
+            List<byte[]> svgs = new ArrayList<>();
+            for (String stepFileName : stepFileNames) {
+                svgs.add(readOutput(new File(targetDir, stepFileName + ".svg")));
+            }
+            bundle = StepBundle.write(targetDir, svgs);
+        }
+        generateHtmlViewer(targetDir, stepMetadata, bundle);
+        fileTiming.addViewerNanos(System.nanoTime() - viewerStart);
+        fileTiming.finish();
+        
+        System.out.println("Generated step flow summary: " + (options.isWriteStepSources() ? summaryFile : outputFile(summarySvgFile)).getAbsolutePath());
+        System.out.println("Generated HTML viewer: " + outputFile(new File(targetDir, "index.html")).getAbsolutePath());
+    }
+    
+    /**
+     * Remembers the files a diagram includes, and lists them in its output directory for builds that
+     * run in a fresh generator, relative to the diagram's directory.
+     */
+    private void recordIncludes(File inputFile, File targetDir, Set<IncludeCache.Dependency> included) throws IOException {
+        diagramIncludes.put(inputFile.getAbsoluteFile(), included);
+        File includesFile = new File(targetDir, INCLUDES_FILE_NAME);
+        if (included.isEmpty()) {
+            Files.deleteIfExists(includesFile.toPath());
+            return;
+        }
+        Path diagramDir = inputFile.getAbsoluteFile().getParentFile().toPath();
+        Set<String> paths = new LinkedHashSet<>();
+        for (IncludeCache.Dependency dependency : included) {
+            paths.add(diagramDir.relativize(dependency.getFile().toPath()).toString().replace(File.separatorChar, '/'));
+        }
+        Files.write(includesFile.toPath(), paths, StandardCharsets.UTF_8);
+    }
+    
+    /**
+     * Returns the diagrams generated so far that include a file changed or deleted since they were generated.
+     */
+    List<File> diagramsWithChangedIncludes() {
+        List<File> diagrams = new ArrayList<>();
+        for (Map.Entry<File, Set<IncludeCache.Dependency>> entry : diagramIncludes.entrySet()) {
+            for (IncludeCache.Dependency dependency : entry.getValue()) {
+                if (!dependency.isCurrent()) {
+                    diagrams.add(entry.getKey());
+                    break;
+                }
+            }
+        }
+        diagrams.sort(null);
+        return diagrams;
+    }
+    
+    /**
+     * Returns the style applied to a diagram's steps: the configured style file, or else
+     * {@code style.puml} in the parent of the diagram's directory. Each style file is read once
+     * and read again only when it changes, so a batch or watch session shares one context per file.
+     */
+    private StyleContext styleFor(File inputFile) throws IOException {
+        File styleFile = options.getStyleFile();
+        if (styleFile == null) {
+            File diagramsRoot = inputFile.getAbsoluteFile().getParentFile().getParentFile();
+            if (diagramsRoot == null) {
+                return StyleContext.NONE;
+            }
+            styleFile = new File(diagramsRoot, "style.puml");
+        }
+        StyleContext style = styles.get(styleFile);
+        if (style == null || !style.isCurrent()) {
+            style = StyleContext.load(styleFile);
+            styles.put(styleFile, style);
+        }
+        return style;
+    }
+    
+    /**
+     * Returns the file name, without extension, used for the step at the given index.
+     */
+    static String stepFileName(int index, Step step) {
+        return String.format("step-%02d-%s", 
+                index + 1, 
+                step.getName().toLowerCase().replaceAll("[^a-z0-9]+", "-"));
+    }
+    
+    /**
+     * Composes the complete PlantUML source for a step: style, title and the step's own content.
+     */
+    static String composeStepSource(String styleContent, Step step) {
+        return composeStepSource(StyleContext.of(styleContent), step);
+    }
+    
+    /**
+     * Composes the complete PlantUML source for a step, starting with the header of a loaded style.
+     */
+    static String composeStepSource(StyleContext style, Step step) {
+        GeneratorEvents.StepComposed event = new GeneratorEvents.StepComposed();
+        event.begin();
+        StringBuilder source = new StringBuilder(style.getHeader().length() + 256);
+        source.append(style.getHeader());
+        source.append("title ").append(step.getName()).append("\n\n");
+        source.append(step.generatePlantUML());
+        source.append("@enduml\n");
+        return composed(event, step.getName(), source);
+    }
+    
+    /**
+     * Composes the PlantUML source for the summary diagram that shows the flow between steps.
+     */
+    static String composeSummarySource(String title, List<String> stepNames) {
+        GeneratorEvents.StepComposed event = new GeneratorEvents.StepComposed();
+        event.begin();
+        StringBuilder source = new StringBuilder();
+        source.append("@startuml\n");
+        source.append("!theme plain\n");
+        source.append("title ").append(title).append(" - Step Flow\n");
+        source.append("skinparam monochrome true\n");
+        source.append("skinparam shadowing false\n");
+        source.append("skinparam defaultFontName Arial\n");
+        source.append("skinparam defaultFontSize 12\n");
+        source.append("\n");
+        
+        for (int i = 0; i < stepNames.size(); i++) {
+            source.append("rectangle \"").append(stepNames.get(i)).append("\" as step").append(i + 1).append("\n");
+        }
+        
+        for (int i = 0; i < stepNames.size() - 1; i++) {
+            source.append("step").append(i + 1).append(" --> step").append(i + 2).append("\n");
+        }
+        
+        source.append("@enduml\n");
+        return composed(event, "Summary", source);
+    }
+    
+    private static String composed(GeneratorEvents.StepComposed event, String step, StringBuilder source) {
+        if (event.shouldCommit()) {
+            event.step = step;
+            event.characters = source.length();
+            event.commit();
+        }
+        return source.toString();
+    }
+    
+    /**
+     * Submits the rendering of a single step.
+     */
+    private Future<?> submitStep(StepRender render, ExecutorService renderExecutor) {
+        return renderExecutor.submit(() -> {
+            writeStepSource(render.source, render.pumlFile, render.timing);
+            renderSvg(render.source, render.svgFile, render.timing);
+            return null;
+        });
+    }
+    
+    /**
+     * Submits the rendering of a run of steps, each continuing the one before it. A run that can be
+     * derived from a single layout is rendered by one task; any other run is rendered step by step.
+     */
+    private List<Future<?>> submitRun(List<StepRender> run, ExecutorService renderExecutor) {
+        List<Future<?>> renders = new ArrayList<>();
+        CumulativeRun cumulativeRun = null;
+        if (run.size() > 1) {
+            List<String> sources = new ArrayList<>();
+            List<String> names = new ArrayList<>();
+            for (StepRender render : run) {
+                sources.add(render.source);
+                names.add(render.name);
+            }
+            cumulativeRun = CumulativeRun.of(sources, names);
+        }
+        
+        if (cumulativeRun == null) {
+            for (StepRender render : run) {
+                renders.add(submitStep(render, renderExecutor));
+            }
+        } else {
+            CumulativeRun derivable = cumulativeRun;
+            renders.add(renderExecutor.submit(() -> {
+                for (StepRender render : run) {
+                    writeStepSource(render.source, render.pumlFile, render.timing);
+                }
+                renderRun(derivable, run);
+                return null;
+            }));
+        }
+        return renders;
+    }
+    
+    /**
+     * Renders the last step of a run once and derives the SVGs of the earlier steps from it,
+     * falling back to rendering each step if PlantUML did not lay the run out as expected.
+     */
+    private void renderRun(CumulativeRun cumulativeRun, List<StepRender> run) throws IOException {
+        if (options.isSkipUnchangedSteps()) {
+            boolean unchanged = true;
+            for (StepRender render : run) {
+                unchanged &= render.source.equals(renderedSources.get(render.svgFile)) && outputExists(render.svgFile);
+            }
+            if (unchanged) {
+                for (StepRender render : run) {
+                    render.timing.unchanged();
+                }
+                return;
+            }
+            for (StepRender render : run) {
+                renderedSources.remove(render.svgFile);
+            }
+        }
         
-        System.out.println("Generated step flow summary: " + summaryFile.getAbsolutePath());
-        System.out.println("Generated HTML viewer: " + new File(targetDir, "index.html").getAbsolutePath());
+        GenerationReport.StepTiming lastTiming = run.get(run.size() - 1).timing;
+        String taggedSource = cumulativeRun.taggedSource();
+        RenderCache cache = renderCache();
+        String key = cache != null ? RenderCache.key(taggedSource) : null;
+        byte[] taggedSvg = cache != null ? cache.read(key) : null;
+        boolean fromCache = taggedSvg != null;
+        if (taggedSvg == null) {
+            ByteArrayOutputStream rendered = new ByteArrayOutputStream();
+            outputSvg(taggedSource, rendered, lastTiming);
+            taggedSvg = rendered.toByteArray();
+            if (cache != null) {
+                cache.put(key, taggedSvg);
+            }
+        }
+        
+        List<byte[]> svgs = cumulativeRun.derive(taggedSvg);
+        if (svgs == null) {
+            for (StepRender render : run) {
+                renderSvg(render.source, render.svgFile, render.timing);
+            }
+            return;
+        }
+        for (int i = 0; i < run.size(); i++) {
+            StepRender render = run.get(i);
+            long writeStart = System.nanoTime();
+            long written = writeSvg(render.svgFile, svgs.get(i));
+            render.timing.add(GenerationReport.Phase.WRITE, System.nanoTime() - writeStart);
+            render.timing.svgWritten(written, fromCache);
+            if (options.isSkipUnchangedSteps()) {
+                renderedSources.put(render.svgFile, render.source);
+            }
+        }
+    }
+    
+    /**
+     * Writes the composed PlantUML source next to its SVG, if intermediate sources are enabled.
+     */
+    private void writeStepSource(String source, File pumlFile, GenerationReport.StepTiming timing) throws IOException {
+        if (!options.isWriteStepSources()) {
+            return;
+        }
+        long start = System.nanoTime();
+        try (FileWriter writer = new FileWriter(pumlFile)) {
+            writer.write(source);
+        }
+        timing.add(GenerationReport.Phase.WRITE, System.nanoTime() - start);
     }
     
     /**
-     * Generates an SVG file from a PlantUML file.
+     * Waits for a render to finish, rethrowing its failure as an IOException.
+     */
+    private static <T> T awaitRender(Future<T> render) throws IOException {
+        try {
+            return render.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while rendering step diagrams");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException("Error rendering step diagram", cause);
+        }
+    }
+    
+    /**
+     * Renders PlantUML source to an SVG file, reusing a cached rendering when one exists.
      * 
-     * @param pumlFile The input PlantUML file
+     * @param source The complete PlantUML source
      * @param svgFile The output SVG file
-     * @throws IOException If there's an error reading or writing files
+     * @throws IOException If there's an error writing the file
+     */
+    private void renderSvg(String source, File svgFile, GenerationReport.StepTiming timing) throws IOException {
+        if (options.isSkipUnchangedSteps()) {
+            if (source.equals(renderedSources.get(svgFile)) && outputExists(svgFile)) {
+                timing.unchanged();
+                return;
+            }
+            // Forget the old source first, so a failed render is retried next time
+            renderedSources.remove(svgFile);
+        }
+        
+        RenderCache cache = renderCache();
+        String key = cache != null ? RenderCache.key(source) : null;
+        boolean copyCached = options.getCompression() == GeneratorOptions.Compression.NONE && !options.isMinifySvg();
+        long copyStart = System.nanoTime();
+        // Cached SVGs are copied as files when written as they are, and minified or compressed from memory otherwise
+        byte[] cached = cache != null && !copyCached ? cache.read(key) : null;
+        if (cache != null && copyCached && cache.copyTo(key, svgFile.toPath())) {
+            deleteStaleOutputs(svgFile);
+            timing.add(GenerationReport.Phase.WRITE, System.nanoTime() - copyStart);
+            timing.svgWritten(svgFile.length(), true);
+        } else if (cached != null) {
+            long written = writeSvg(svgFile, cached);
+            timing.add(GenerationReport.Phase.WRITE, System.nanoTime() - copyStart);
+            timing.svgWritten(written, true);
+        } else {
+            // Render into memory first, so that PlantUML's time and the file write are timed apart
+            ByteArrayOutputStream rendered = new ByteArrayOutputStream();
+            outputSvg(source, rendered, timing);
+            byte[] svg = rendered.toByteArray();
+            long writeStart = System.nanoTime();
+            long written = writeSvg(svgFile, svg);
+            if (cache != null) {
+                cache.put(key, svg);
+            }
+            timing.add(GenerationReport.Phase.WRITE, System.nanoTime() - writeStart);
+            timing.svgWritten(written, false);
+        }
+        
+        if (options.isSkipUnchangedSteps()) {
+            renderedSources.put(svgFile, source);
+        }
+    }
+    
+    /**
+     * Renders PlantUML source to SVG bytes, reusing a cached rendering when one exists.
+     * 
+     * @param source The complete PlantUML source
+     * @return The rendered SVG
+     * @throws IOException If the cache cannot be read or written
+     */
+    private byte[] renderSvg(String source) throws IOException {
+        ByteArrayOutputStream svg = new ByteArrayOutputStream();
+        renderSvg(source, svg);
+        return svg.toByteArray();
+    }
+    
+    /**
+     * Renders PlantUML source as SVG to an output stream, reusing a cached rendering when one exists.
+     * 
+     * @param source The complete PlantUML source
+     * @param output The stream the SVG is written to
+     * @throws IOException If there's an error writing the stream
+     */
+    private void renderSvg(String source, OutputStream output) throws IOException {
+        RenderCache cache = renderCache();
+        if (cache == null && !options.isMinifySvg()) {
+            outputSvg(source, output);
+            return;
+        }
+        
+        String key = cache != null ? RenderCache.key(source) : null;
+        byte[] svg = cache != null ? cache.read(key) : null;
+        if (svg == null) {
+            ByteArrayOutputStream rendered = new ByteArrayOutputStream();
+            outputSvg(source, rendered);
+            svg = rendered.toByteArray();
+            if (cache != null) {
+                cache.put(key, svg);
+            }
+        }
+        if (options.isMinifySvg()) {
+            SvgMinifier.minify(svg, output);
+        } else {
+            output.write(svg);
+        }
+    }
+    
+    /**
+     * Runs PlantUML on the source, writing the SVG to an output stream.
+     */
+    private static void outputSvg(String source, OutputStream output) throws IOException {
+        outputSvg(source, output, new GenerationReport.StepTiming(null, null));
+    }
+    
+    /**
+     * Runs PlantUML on the source, recording a {@link GeneratorEvents.SvgRendered} event with the SVG's size.
+     */
+    private static void outputSvg(String source, OutputStream output, GenerationReport.StepTiming timing) throws IOException {
+        GeneratorEvents.SvgRendered event = new GeneratorEvents.SvgRendered();
+        if (event.isEnabled()) {
+            CountingOutputStream counted = new CountingOutputStream(output);
+            event.begin();
+            exportSvg(source, counted, timing);
+            event.end();
+            if (event.shouldCommit()) {
+                event.file = timing.getFile();
+                event.step = timing.getStep();
+                event.bytes = counted.count;
+                event.commit();
+            }
+        } else {
+            exportSvg(source, output, timing);
+        }
+    }
+    
+    /**
+     * Runs PlantUML on the source, timing the diagram it builds apart from its layout and SVG output.
+     * This is what {@link SourceStringReader#outputImage} does for the first diagram of a source.
      */
-    private static void generateSvg(File pumlFile, File svgFile) throws IOException {
-        String source = Files.readString(pumlFile.toPath());
+    private static void exportSvg(String source, OutputStream output, GenerationReport.StepTiming timing) throws IOException {
+        FileFormatOption format = new FileFormatOption(FileFormat.SVG);
+        long start = System.nanoTime();
         SourceStringReader reader = new SourceStringReader(source);
-        try (FileOutputStream output = new FileOutputStream(svgFile)) {
-            reader.outputImage(output, new FileFormatOption(FileFormat.SVG));
+        List<BlockUml> blocks = reader.getBlocks();
+        if (blocks.isEmpty()) {
+            // Let PlantUML render its "no @startuml found" image
+            reader.outputImage(output, format);
+            timing.add(GenerationReport.Phase.LAYOUT_AND_SVG, System.nanoTime() - start);
+            return;
         }
+        Diagram diagram = blocks.get(0).getDiagram();
+        long layoutStart = System.nanoTime();
+        timing.add(GenerationReport.Phase.DIAGRAM, layoutStart - start);
+        diagram.exportDiagram(output, 0, format);
+        timing.add(GenerationReport.Phase.LAYOUT_AND_SVG, System.nanoTime() - layoutStart);
     }
     
     /**
-     * Generates an HTML viewer for the step diagrams.
+     * Writes the timing report of a run and prints its summary, if a report is configured.
+     */
+    private void writeReport(GenerationReport report) throws IOException {
+        report.finish();
+        if (options.getTimingReport() != null) {
+            report.write(options.getTimingReport(), System.out);
+        }
+    }
+    
+    /**
+     * Returns the render cache, opening it on first use, or null if caching is disabled.
+     */
+    private synchronized RenderCache renderCache() throws IOException {
+        if (renderCache == null && options.getCacheDirectory() != null) {
+            renderCache = RenderCache.open(options.getCacheDirectory().toPath(), options.getCacheMaxBytes());
+        }
+        return renderCache;
+    }
+    
+    /**
+     * Fills the viewer template with the steps to show, each loaded from its own SVG file.
      * 
-     * @param outputDir The output directory
-     * @param stepMetadata The metadata for each step
-     * @throws IOException If there's an error reading or writing files
+     * @param stepMetadata The name and SVG path of each step
+     * @return The viewer HTML
+     * @throws IOException If the template cannot be read
+     */
+    static String viewerHtml(List<Map<String, String>> stepMetadata) throws IOException {
+        return viewerHtml(stepMetadata, null);
+    }
+    
+    /**
+     * Fills the viewer template with the steps to show.
+     * 
+     * @param stepMetadata The name and SVG path of each step
+     * @param bundle The bundle the viewer loads the steps from, or null to load each step from its SVG file
+     * @return The viewer HTML
+     * @throws IOException If the template cannot be read
      */
-    private static void generateHtmlViewer(File outputDir, List<Map<String, String>> stepMetadata) throws IOException {
+    static String viewerHtml(List<Map<String, String>> stepMetadata, StepBundle bundle) throws IOException {
         // Read the template
         InputStream templateStream = StepDiagramGenerator.class.getResourceAsStream(VIEWER_TEMPLATE);
         if (templateStream == null) {
@@ -184,12 +941,202 @@ public class StepDiagramGenerator {
         
         // Replace the steps placeholder with the actual JSON data
         String stepsJson = new Gson().toJson(stepMetadata);
-        String html = template.replace("{{STEPS_JSON}}", stepsJson);
+        String bundleJson = bundle != null ? new Gson().toJson(bundle.toJson()) : "null";
+        return template.replace("{{BUNDLE_JSON}}", bundleJson).replace("{{STEPS_JSON}}", stepsJson);
+    }
+    
+    /**
+     * Generates an HTML viewer for the step diagrams.
+     * 
+     * @param outputDir The output directory
+     * @param stepMetadata The metadata for each step
+     * @throws IOException If there's an error reading or writing files
+     */
+    private void generateHtmlViewer(File outputDir, List<Map<String, String>> stepMetadata, StepBundle bundle) throws IOException {
+        GeneratorEvents.ViewerWritten event = new GeneratorEvents.ViewerWritten();
+        event.begin();
+        String html = viewerHtml(stepMetadata, bundle);
         
         // Write the HTML file
-        File htmlFile = new File(outputDir, "index.html");
-        try (FileWriter writer = new FileWriter(htmlFile)) {
-            writer.write(html);
+        byte[] htmlBytes = html.getBytes(StandardCharsets.UTF_8);
+        writeOutput(new File(outputDir, "index.html"), htmlBytes);
+        
+        if (event.shouldCommit()) {
+            event.directory = outputDir.getPath();
+            event.steps = stepMetadata.size();
+            event.bytes = htmlBytes.length;
+            event.commit();
+        }
+    }
+    
+    /**
+     * Queues the export of a written SVG to the configured formats.
+     */
+    private void export(SvgExporter exporter, File svgFile) throws IOException {
+        exporter.submit(svgFile, readOutput(svgFile), outputFile(svgFile).lastModified());
+    }
+    
+    /**
+     * Writes a rendered SVG, minified if configured, returning the number of bytes of SVG written.
+     * Renders are cached as PlantUML wrote them, so the cache serves runs with and without minification.
+     */
+    private long writeSvg(File svgFile, byte[] svg) throws IOException {
+        byte[] written = options.isMinifySvg() ? SvgMinifier.minify(svg) : svg;
+        writeOutput(svgFile, written);
+        return written.length;
+    }
+    
+    /**
+     * Writes an SVG or viewer as the configured compression asks: plain, gzipped next to it with
+     * {@code .gz} appended, or both. Both files are written from the same bytes in one pass.
+     * A file the configured compression leaves out is deleted, so it cannot be served stale.
+     */
+    private void writeOutput(File file, byte[] content) throws IOException {
+        deleteStaleOutputs(file);
+        switch (options.getCompression()) {
+            case GZIP_ALONGSIDE:
+                try (OutputStream plain = new FileOutputStream(file);
+                     OutputStream gzipped = new GZIPOutputStream(new FileOutputStream(gzipFile(file)))) {
+                    plain.write(content);
+                    gzipped.write(content);
+                }
+                break;
+            case GZIP_ONLY:
+                try (OutputStream gzipped = new GZIPOutputStream(new FileOutputStream(gzipFile(file)))) {
+                    gzipped.write(content);
+                }
+                break;
+            default:
+                Files.write(file.toPath(), content);
+        }
+    }
+    
+    /**
+     * Reads back an SVG or viewer written by {@link #writeOutput}.
+     */
+    private byte[] readOutput(File file) throws IOException {
+        if (options.getCompression() != GeneratorOptions.Compression.GZIP_ONLY) {
+            return Files.readAllBytes(file.toPath());
+        }
+        try (InputStream input = new GZIPInputStream(new FileInputStream(gzipFile(file)))) {
+            return input.readAllBytes();
+        }
+    }
+    
+    /**
+     * Returns whether an SVG or viewer has been written, under the configured compression.
+     */
+    private boolean outputExists(File file) {
+        return outputFile(file).exists();
+    }
+    
+    /**
+     * Returns the file an SVG or viewer is found in: the gzipped file if only that is written,
+     * the plain file otherwise.
+     */
+    private File outputFile(File file) {
+        return options.getCompression() == GeneratorOptions.Compression.GZIP_ONLY ? gzipFile(file) : file;
+    }
+    
+    /**
+     * Deletes the plain or gzipped file that an earlier run with other compression left next to an output.
+     */
+    private void deleteStaleOutputs(File file) throws IOException {
+        GeneratorOptions.Compression compression = options.getCompression();
+        if (compression == GeneratorOptions.Compression.NONE) {
+            Files.deleteIfExists(gzipFile(file).toPath());
+        } else if (compression == GeneratorOptions.Compression.GZIP_ONLY) {
+            Files.deleteIfExists(file.toPath());
+        }
+    }
+    
+    /**
+     * Returns the gzipped file written next to an output.
+     */
+    static File gzipFile(File file) {
+        return new File(file.getPath() + ".gz");
+    }
+    
+    /**
+     * Counts the bytes written through it, for the size of rendered SVGs.
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+        private long count;
+        
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+        
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+        
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+    
+    /**
+     * A composed step and the files it is rendered to.
+     */
+    private static final class StepRender {
+        private final String name;
+        private final String source;
+        private final File pumlFile;
+        private final File svgFile;
+        private final GenerationReport.StepTiming timing;
+        
+        StepRender(String name, String source, File pumlFile, File svgFile, GenerationReport.StepTiming timing) {
+            this.name = name;
+            this.source = source;
+            this.pumlFile = pumlFile;
+            this.svgFile = svgFile;
+            this.timing = timing;
+        }
+    }
+    
+    /**
+     * Executor that runs each task on the submitting thread, used for sequential rendering.
+     */
+    private static class CallerRunsExecutor extends AbstractExecutorService {
+        private volatile boolean shutdown;
+        
+        @Override
+        public void execute(Runnable command) {
+            if (shutdown) {
+                throw new RejectedExecutionException("Executor has been shut down");
+            }
+            command.run();
+        }
+        
+        @Override
+        public void shutdown() {
+            shutdown = true;
+        }
+        
+        @Override
+        public List<Runnable> shutdownNow() {
+            shutdown = true;
+            return Collections.emptyList();
+        }
+        
+        @Override
+        public boolean isShutdown() {
+            return shutdown;
+        }
+        
+        @Override
+        public boolean isTerminated() {
+            return shutdown;
+        }
+        
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) {
+            return shutdown;
         }
     }
 } 
@@ -0,0 +1,466 @@
+package com.example;
+
+import com.google.gson.Gson;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+/**
+ * Serves step diagrams over HTTP from a generator that stays loaded and warm between requests.
+ * <p>
+ * {@code POST /diagrams} with PlantUML source as the body renders its steps and returns the step list as JSON.
+ * The rendered diagram is then served under {@code /diagrams/<id>/}: {@code steps} for the step list,
+ * {@code <step-file-name>.svg} for each step and {@code index.html} for the viewer. The most recently used
+ * diagrams are kept, up to a total size in bytes; identical sources share an id and are only rendered once.
+ * <p>
+ * Each request runs on its own virtual thread where the JDK has them, or a pooled thread otherwise.
+ * At most a fixed number of sources are read and rendered at once; a request that cannot start within a
+ * short wait is answered with 503 before its body is read, so a burst of requests cannot exhaust the heap.
+ * Bodies declared larger than the source limit are refused before they are admitted.
+ * <p>
+ * Sources come from whoever can reach the port, so the server listens on the loopback interface unless told
+ * otherwise, and refuses sources that would make PlantUML read local files or fetch URLs: {@code !include}
+ * and {@code !import} directives, themes loaded from elsewhere, images, JSON and environment lookups, and
+ * URLs outside {@code [[...]]} links. Run from {@link #main}, PlantUML itself also runs in its sandbox profile.
+ */
+public class StepDiagramServer implements Closeable {
+    static final int MAX_SOURCE_BYTES = 1024 * 1024;
+    static final long DEFAULT_MAX_CACHED_BYTES = 64L * 1024 * 1024;
+    private static final long ADMISSION_WAIT_MILLIS = 500;
+    private static final String DIAGRAMS_PATH = "/diagrams";
+    private static final String SECURITY_PROFILE = "PLANTUML_SECURITY_PROFILE";
+    private static final Pattern HYPERLINK = Pattern.compile("\\[\\[[^\\]]*\\]\\]");
+
+    private final StepDiagramGenerator generator;
+    private final HttpServer server;
+    private final ExecutorService requestExecutor;
+    // Permits for sources being read or rendered; package-private so tests can hold them
+    final Semaphore renderPermits;
+    // Most recently used last; guarded by itself, as is cachedBytes
+    private final Map<String, RenderedDiagram> diagrams = new LinkedHashMap<>(16, 0.75f, true);
+    private final long maxCachedBytes;
+    private long cachedBytes;
+
+    /**
+     * Creates a server, which starts accepting requests when {@link #start()} is called.
+     *
+     * @param address The address to listen on; port 0 picks a free port
+     * @param options The generator options; the render cache, if set, is shared by all requests
+     * @param maxConcurrentRenders The number of renders that may run at once
+     * @throws IOException If the address cannot be bound
+     */
+    public StepDiagramServer(InetSocketAddress address, GeneratorOptions options, int maxConcurrentRenders) throws IOException {
+        this(address, options, maxConcurrentRenders, DEFAULT_MAX_CACHED_BYTES);
+    }
+
+    /**
+     * Creates a server that keeps rendered diagrams up to the given total size.
+     *
+     * @param maxCachedBytes The total size of the SVGs, step lists and viewers of the diagrams kept
+     */
+    StepDiagramServer(InetSocketAddress address, GeneratorOptions options, int maxConcurrentRenders,
+                      long maxCachedBytes) throws IOException {
+        if (maxConcurrentRenders < 1) {
+            throw new IllegalArgumentException("Concurrent renders must be at least 1: " + maxConcurrentRenders);
+        }
+        this.generator = new StepDiagramGenerator(options);
+        this.maxCachedBytes = maxCachedBytes;
+        this.renderPermits = new Semaphore(maxConcurrentRenders);
+        this.requestExecutor = newRequestExecutor();
+        this.server = HttpServer.create(address, 0);
+        this.server.createContext(DIAGRAMS_PATH, this::handle);
+        this.server.setExecutor(requestExecutor);
+    }
+
+    public static void main(String[] args) {
+        // Read once, when PlantUML first needs it, so it must be set before anything is rendered
+        if (System.getProperty(SECURITY_PROFILE) == null && System.getenv(SECURITY_PROFILE) == null) {
+            System.setProperty(SECURITY_PROFILE, "SANDBOX");
+        }
+        GeneratorOptions options = GeneratorOptions.defaults();
+        String host = null;
+        int port = 8080;
+        int maxConcurrentRenders = Runtime.getRuntime().availableProcessors();
+        File cacheDirectory = null;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("--port") && i + 1 < args.length) {
+                    port = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("--bind") && i + 1 < args.length) {
+                    host = args[++i];
+                } else if (args[i].equals("--max-renders") && i + 1 < args.length) {
+                    maxConcurrentRenders = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("--cache-dir") && i + 1 < args.length) {
+                    cacheDirectory = new File(args[++i]);
+                } else {
+                    System.err.println("Usage: StepDiagramServer [options]");
+                    System.err.println("Options:");
+                    System.err.println("  --port <n>           Port to listen on (default 8080)");
+                    System.err.println("  --bind <address>     Address to listen on (default: loopback; 0.0.0.0 for every interface)");
+                    System.err.println("  --max-renders <n>    Renders that may run at once (default: available processors)");
+                    System.err.println("  --cache-dir <dir>    Reuse SVGs rendered from identical step sources, across restarts");
+                    System.exit(1);
+                }
+            }
+            if (cacheDirectory != null) {
+                options.renderCache(cacheDirectory, options.getCacheMaxBytes());
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println("Invalid option: " + e.getMessage());
+            System.exit(1);
+        }
+
+        try {
+            InetSocketAddress address = bindAddress(host, port);
+            StepDiagramServer server = new StepDiagramServer(address, options, maxConcurrentRenders);
+            server.start();
+            System.out.println("Serving step diagrams at http://" + address.getAddress().getHostAddress() + ":"
+                    + server.getPort() + DIAGRAMS_PATH);
+        } catch (IOException e) {
+            System.err.println("Error starting server: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Returns the address to listen on: the given host, or the loopback interface if none is given.
+     *
+     * @throws UnknownHostException If the host cannot be resolved
+     */
+    static InetSocketAddress bindAddress(String host, int port) throws UnknownHostException {
+        return new InetSocketAddress(host == null ? InetAddress.getLoopbackAddress() : InetAddress.getByName(host), port);
+    }
+
+    /**
+     * Starts accepting requests.
+     */
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Returns the port the server listens on.
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Stops the server, without waiting for requests in progress.
+     */
+    @Override
+    public void close() {
+        server.stop(0);
+        requestExecutor.shutdownNow();
+    }
+
+    /**
+     * Creates the executor requests run on: a virtual thread per request where the JDK has them (Java 21
+     * and later), otherwise a pool of platform threads. Renders are bounded by the render permits either way.
+     */
+    static ExecutorService newRequestExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            AtomicInteger threadCount = new AtomicInteger();
+            return Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "step-server-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    private void handle(HttpExchange exchange) {
+        try (exchange) {
+            try {
+                route(exchange);
+            } catch (RuntimeException | IOException e) {
+                System.err.println("Error handling " + exchange.getRequestURI() + ": " + e);
+                if (exchange.getResponseCode() == -1) {
+                    sendText(exchange, 500, "Error rendering diagram: " + e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            // The client went away while the error was sent
+        }
+    }
+
+    private void route(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        String method = exchange.getRequestMethod();
+        if (path.equals(DIAGRAMS_PATH) || path.equals(DIAGRAMS_PATH + "/")) {
+            if (method.equals("POST")) {
+                handleRender(exchange);
+            } else {
+                exchange.getResponseHeaders().set("Allow", "POST");
+                sendText(exchange, 405, "Use POST to render a diagram");
+            }
+            return;
+        }
+
+        if (!method.equals("GET") && !method.equals("HEAD")) {
+            exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+            sendText(exchange, 405, "Rendered diagrams are read-only");
+            return;
+        }
+        // /diagrams/<id>/<resource>
+        String[] parts = path.substring(DIAGRAMS_PATH.length() + 1).split("/", -1);
+        RenderedDiagram diagram;
+        synchronized (diagrams) {
+            diagram = diagrams.get(parts[0]);
+        }
+        if (diagram == null || parts.length > 2) {
+            sendText(exchange, 404, "No such diagram: " + path);
+            return;
+        }
+        if (parts.length == 1) {
+            // The viewer loads the step SVGs relative to its own URL
+            exchange.getResponseHeaders().set("Location", diagram.path);
+            sendText(exchange, 301, "Moved to " + diagram.path);
+            return;
+        }
+        String resource = parts[1];
+        if (resource.isEmpty() || resource.equals("index.html")) {
+            send(exchange, 200, "text/html; charset=utf-8", diagram.viewerHtml);
+        } else if (resource.equals("steps")) {
+            send(exchange, 200, "application/json", diagram.stepsJson);
+        } else {
+            byte[] svg = diagram.svgs.get(resource);
+            if (svg == null) {
+                sendText(exchange, 404, "No such step: " + path);
+            } else {
+                send(exchange, 200, "image/svg+xml", svg);
+            }
+        }
+    }
+
+    private void handleRender(HttpExchange exchange) throws IOException {
+        // Checked before admission, so an oversized request neither waits for nor holds a permit
+        if (contentLength(exchange) > MAX_SOURCE_BYTES) {
+            refuseUnread(exchange, 413, "Diagram source exceeds " + MAX_SOURCE_BYTES + " bytes");
+            return;
+        }
+        // Taken before the body is read, so waiting requests hold no more than their connection
+        if (!acquireRenderPermit()) {
+            exchange.getResponseHeaders().set("Retry-After", "1");
+            refuseUnread(exchange, 503, "Too many diagrams are being rendered; try again shortly");
+            return;
+        }
+        RenderedDiagram diagram;
+        try {
+            byte[] body = readBody(exchange.getRequestBody());
+            if (body == null) {
+                sendText(exchange, 413, "Diagram source exceeds " + MAX_SOURCE_BYTES + " bytes");
+                return;
+            }
+            String source = new String(body, StandardCharsets.UTF_8);
+            String refused = refusedLine(source);
+            if (refused != null) {
+                sendText(exchange, 403, "Diagram sources may not read files or URLs: " + refused);
+                return;
+            }
+            String id = RenderCache.key(source);
+
+            synchronized (diagrams) {
+                diagram = diagrams.get(id);
+            }
+            if (diagram == null) {
+                diagram = new RenderedDiagram(id, generator.renderSteps(source));
+                cache(diagram);
+            }
+        } finally {
+            renderPermits.release();
+        }
+
+        exchange.getResponseHeaders().set("Location", diagram.path);
+        send(exchange, 200, "application/json", diagram.stepsJson);
+    }
+
+    /**
+     * Answers a request whose body has not been read. The body is read and dropped through a small buffer
+     * first, as closing a connection with unread data can reset it before the client sees the answer;
+     * a body longer than the source limit is cut short and the connection closed.
+     */
+    private static void refuseUnread(HttpExchange exchange, int status, String message) throws IOException {
+        InputStream body = exchange.getRequestBody();
+        byte[] buffer = new byte[8192];
+        long discarded = 0;
+        int read = 0;
+        while (discarded <= MAX_SOURCE_BYTES && (read = body.read(buffer)) >= 0) {
+            discarded += read;
+        }
+        if (read >= 0) {
+            exchange.getResponseHeaders().set("Connection", "close");
+        }
+        sendText(exchange, status, message);
+    }
+
+    /**
+     * Returns the length the client declared for the request body, or -1 if it declared none.
+     */
+    private static long contentLength(HttpExchange exchange) {
+        String length = exchange.getRequestHeaders().getFirst("Content-Length");
+        try {
+            return length != null ? Long.parseLong(length.trim()) : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Keeps a rendered diagram, dropping the least recently used ones until the cache fits its size.
+     * A diagram larger than the whole cache is served but not kept.
+     */
+    private void cache(RenderedDiagram diagram) {
+        if (diagram.size > maxCachedBytes) {
+            return;
+        }
+        synchronized (diagrams) {
+            RenderedDiagram replaced = diagrams.put(diagram.id, diagram);
+            cachedBytes += diagram.size - (replaced != null ? replaced.size : 0);
+            Iterator<RenderedDiagram> eldest = diagrams.values().iterator();
+            while (cachedBytes > maxCachedBytes) {
+                cachedBytes -= eldest.next().size;
+                eldest.remove();
+            }
+        }
+    }
+
+    /**
+     * Returns whether a rendered diagram is kept; for tests.
+     */
+    boolean isCached(String id) {
+        synchronized (diagrams) {
+            return diagrams.containsKey(id);
+        }
+    }
+
+    /**
+     * Returns the total size of the diagrams kept; for tests.
+     */
+    long getCachedBytes() {
+        synchronized (diagrams) {
+            return cachedBytes;
+        }
+    }
+
+    private boolean acquireRenderPermit() throws IOException {
+        try {
+            return renderPermits.tryAcquire(ADMISSION_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting to render", e);
+        }
+    }
+
+    /**
+     * Returns the first line of a source that would read a local file or fetch a URL, or null if there is none.
+     */
+    static String refusedLine(String source) {
+        // Lines end at \n, \r\n or a lone \r, as they do for the parser and PlantUML
+        for (String line : source.split("\r\n|\r|\n")) {
+            String trimmed = line.trim().toLowerCase(Locale.ROOT);
+            if (trimmed.startsWith("!include") || trimmed.startsWith("!import")
+                    || (trimmed.startsWith("!theme") && trimmed.contains(" from "))
+                    || trimmed.contains("<img:") || trimmed.contains("%load_json") || trimmed.contains("%getenv")
+                    // Hyperlinks are written into the SVG as they are, never fetched
+                    || HYPERLINK.matcher(trimmed).replaceAll("").contains("://")) {
+                return line.trim();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads a request body, or returns null if it is larger than {@link #MAX_SOURCE_BYTES}.
+     */
+    private static byte[] readBody(InputStream body) throws IOException {
+        byte[] bytes = body.readNBytes(MAX_SOURCE_BYTES + 1);
+        return bytes.length > MAX_SOURCE_BYTES ? null : bytes;
+    }
+
+    private static void sendText(HttpExchange exchange, int status, String message) throws IOException {
+        send(exchange, status, "text/plain; charset=utf-8", (message + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void send(HttpExchange exchange, int status, String contentType, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        boolean head = exchange.getRequestMethod().equals("HEAD");
+        exchange.sendResponseHeaders(status, head ? -1 : body.length);
+        if (!head) {
+            try (OutputStream output = exchange.getResponseBody()) {
+                output.write(body);
+            }
+        }
+    }
+
+    /**
+     * The steps of a rendered source, with everything the server sends for them prepared up front.
+     */
+    private static final class RenderedDiagram {
+        private final String id;
+        private final String path;
+        private final byte[] stepsJson;
+        private final byte[] viewerHtml;
+        private final Map<String, byte[]> svgs = new HashMap<>();
+        // The bytes held for this diagram; the source itself is not kept
+        private final long size;
+
+        RenderedDiagram(String id, List<RenderedStep> steps) throws IOException {
+            this.id = id;
+            this.path = DIAGRAMS_PATH + "/" + id + "/";
+            List<Map<String, Object>> stepList = new ArrayList<>();
+            List<Map<String, String>> viewerSteps = new ArrayList<>();
+            for (RenderedStep step : steps) {
+                String svgPath = step.getFileName() + ".svg";
+                svgs.put(svgPath, step.getSvg());
+
+                Map<String, Object> json = new LinkedHashMap<>();
+                json.put("name", step.getName());
+                json.put("newPage", step.getStep().isNewPage());
+                json.put("svg", path + svgPath);
+                stepList.add(json);
+
+                Map<String, String> viewerStep = new HashMap<>();
+                viewerStep.put("name", step.getName());
+                viewerStep.put("svgPath", svgPath);
+                viewerSteps.add(viewerStep);
+            }
+
+            Map<String, Object> json = new LinkedHashMap<>();
+            json.put("id", id);
+            json.put("viewer", path + "index.html");
+            json.put("steps", stepList);
+            this.stepsJson = new Gson().toJson(json).getBytes(StandardCharsets.UTF_8);
+            this.viewerHtml = StepDiagramGenerator.viewerHtml(viewerSteps).getBytes(StandardCharsets.UTF_8);
+            long svgBytes = 0;
+            for (byte[] svg : svgs.values()) {
+                svgBytes += svg.length;
+            }
+            this.size = svgBytes + stepsJson.length + viewerHtml.length;
+        }
+    }
+}
@@ -6,16 +6,32 @@ import java.util.Map;
  * Container for step metadata attributes
  */
 class StepMetadata {
+    private static final JSONParser ATTRIBUTE_PARSER = new JSONParser();
+
     private final String name;
     private final boolean newPage;
-    private final Map<String, Object> attributes;
+    // The step marker's JSON object, parsed into attributes when they are first requested
+    private final String attributesJson;
+    private Map<String, Object> attributes;
 
     public StepMetadata(String name, boolean newPage, Map<String, Object> attributes) {
+        this(name, newPage, null, attributes);
+    }
+
+    private StepMetadata(String name, boolean newPage, String attributesJson, Map<String, Object> attributes) {
         this.name = name;
         this.newPage = newPage;
+        this.attributesJson = attributesJson;
         this.attributes = attributes;
     }
 
+    /**
+     * Creates metadata whose attributes are parsed from the step marker's JSON object only when requested.
+     */
+    static StepMetadata withLazyAttributes(String name, boolean newPage, String attributesJson) {
+        return new StepMetadata(name, newPage, attributesJson, null);
+    }
+
     public String getName() {
         return name;
     }
@@ -24,7 +40,10 @@ class StepMetadata {
         return newPage;
     }
 
-    public Map<String, Object> getAttributes() {
+    public synchronized Map<String, Object> getAttributes() {
+        if (attributes == null) {
+            attributes = ATTRIBUTE_PARSER.parse(attributesJson);
+        }
         return attributes;
     }
 }
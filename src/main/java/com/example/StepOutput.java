@@ -0,0 +1,21 @@
+package com.example;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Supplies the stream a rendered step's SVG is written to.
+ * With parallel rendering, {@link #open} may be called from several threads at once.
+ */
+@FunctionalInterface
+public interface StepOutput {
+
+    /**
+     * Opens the stream for one step. The generator closes it once the SVG has been written.
+     *
+     * @param index The zero-based index of the step
+     * @param step The step being rendered
+     * @param fileName The file name, without extension, the generator would use for this step
+     */
+    OutputStream open(int index, Step step, String fileName) throws IOException;
+}
@@ -0,0 +1,107 @@
+package com.example;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * A style file, read and preprocessed once, and the header every step's source starts with.
+ * <p>
+ * The {@code @startuml} and {@code @enduml} lines, comment lines and blank lines are left out when
+ * the style is loaded, so neither the generator nor PlantUML handles them again for every step.
+ * A context remembers the size and modification time of the file it was read from, so a cached
+ * context can be checked against the file and read again only when the file changed.
+ */
+final class StyleContext {
+    private static final String BLOCK_COMMENT_START = "/'";
+    private static final String BLOCK_COMMENT_END = "'/";
+
+    /** No style: steps start with {@code @startuml} alone. */
+    static final StyleContext NONE = new StyleContext(null, 0, 0, "");
+
+    private final File file;
+    private final long lastModified;
+    private final long length;
+    private final String content;
+    private final String header;
+
+    private StyleContext(File file, long lastModified, long length, String content) {
+        this.file = file;
+        this.lastModified = lastModified;
+        this.length = length;
+        this.content = content;
+        this.header = content.isEmpty() ? "@startuml\n" : "@startuml\n" + content + "\n";
+    }
+
+    /**
+     * Reads and preprocesses a style file. A missing file gives a context with no style, which
+     * stays current until the file is created.
+     */
+    static StyleContext load(File file) throws IOException {
+        // Taken before reading, so a change made while the file is read is picked up next time
+        long lastModified = file.lastModified();
+        long length = file.length();
+        String content = file.isFile() ? preprocess(Files.readString(file.toPath())) : "";
+        return new StyleContext(file, lastModified, length, content);
+    }
+
+    /**
+     * Returns a context for style text that is not read from a file.
+     */
+    static StyleContext of(String styleText) {
+        String content = preprocess(styleText);
+        return content.isEmpty() ? NONE : new StyleContext(null, 0, 0, content);
+    }
+
+    /**
+     * Returns whether the file this context was read from is unchanged since.
+     */
+    boolean isCurrent() {
+        return file == null || (file.lastModified() == lastModified && file.length() == length);
+    }
+
+    /**
+     * Returns the preprocessed style, without a trailing newline.
+     */
+    String getContent() {
+        return content;
+    }
+
+    /**
+     * Returns the text every step's source starts with: {@code @startuml} and the style.
+     */
+    String getHeader() {
+        return header;
+    }
+
+    /**
+     * Leaves out the lines that would be handled for every step without changing how it is drawn: blank
+     * lines, {@code @startuml} and {@code @enduml}, {@code '} comment lines and {@code /' ... '/} block
+     * comments, which PlantUML only accepts on lines of their own.
+     */
+    static String preprocess(String styleText) {
+        StringBuilder content = new StringBuilder(styleText.length());
+        boolean inBlockComment = false;
+        for (String line : styleText.split("\r?\n")) {
+            String trimmed = line.trim();
+            if (inBlockComment) {
+                // The line ending the comment starts with a quote too, so it must not be taken for a comment line
+                inBlockComment = !trimmed.contains(BLOCK_COMMENT_END);
+                continue;
+            }
+            if (trimmed.startsWith(BLOCK_COMMENT_START)) {
+                inBlockComment = trimmed.indexOf(BLOCK_COMMENT_END, BLOCK_COMMENT_START.length()) < 0;
+                continue;
+            }
+            if (trimmed.isEmpty() || trimmed.startsWith("'")
+                    || trimmed.startsWith("@startuml") || trimmed.startsWith("@enduml")) {
+                continue;
+            }
+            if (content.length() > 0) {
+                content.append('\n');
+            }
+            content.append(line);
+        }
+        return content.toString();
+    }
+}
@@ -0,0 +1,252 @@
+package com.example;
+
+import org.apache.batik.transcoder.SVGAbstractTranscoder;
+import org.apache.batik.transcoder.Transcoder;
+import org.apache.batik.transcoder.TranscoderException;
+import org.apache.batik.transcoder.TranscoderInput;
+import org.apache.batik.transcoder.TranscoderOutput;
+import org.apache.batik.transcoder.image.PNGTranscoder;
+import org.apache.fop.svg.PDFTranscoder;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Exports rendered SVGs to PNG and PDF with Batik, on a pool of its own threads.
+ * <p>
+ * The exports are transcoded from the SVG PlantUML has already laid out, so each diagram is laid out
+ * once whatever the number of formats. Each SVG is exported next to itself: {@code <name>.png},
+ * {@code <name>.pdf} and, if thumbnails are configured, {@code <name>.thumb.png}.
+ * <p>
+ * Each queued export holds its SVG until it is written, so only a few SVGs per export thread are
+ * queued at once; {@link #submit} waits for an earlier SVG to be exported when that many are.
+ */
+final class SvgExporter implements Closeable {
+    // Batik and PlantUML both take SVG pixels to be CSS pixels, 96 to the inch
+    private static final float CSS_DPI = 96f;
+    private static final Pattern SVG_WIDTH = Pattern.compile("<svg\\b[^>]*?\\swidth=\"([0-9.]+)(?:px)?\"");
+    private static final int QUEUED_SVGS_PER_THREAD = 4;
+
+    private final Set<GeneratorOptions.ExportFormat> formats;
+    private final float dpi;
+    private final int thumbnailWidth;
+    private final boolean skipUnchanged;
+    private final ExecutorService executor;
+    private final List<Future<?>> pending = new ArrayList<>();
+    private final int maxQueuedSvgs;
+    private final Semaphore queuedSvgs;
+
+    /**
+     * Creates an exporter for the export formats, resolution and thumbnail size of the options.
+     */
+    SvgExporter(GeneratorOptions options) {
+        this(options, QUEUED_SVGS_PER_THREAD * options.getExportThreads());
+    }
+
+    /**
+     * Creates an exporter that queues at most the given number of SVGs at once.
+     */
+    SvgExporter(GeneratorOptions options, int maxQueuedSvgs) {
+        this.formats = EnumSet.copyOf(options.getExportFormats());
+        this.dpi = options.getExportDpi();
+        this.thumbnailWidth = options.getThumbnailWidth();
+        this.skipUnchanged = options.isSkipUnchangedSteps();
+        this.maxQueuedSvgs = maxQueuedSvgs;
+        this.queuedSvgs = new Semaphore(maxQueuedSvgs);
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(options.getExportThreads(), runnable -> {
+            Thread thread = new Thread(runnable, "step-export-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Queues the export of an SVG, to be written next to the SVG file, first waiting for an earlier SVG
+     * to be exported if as many as allowed are queued.
+     *
+     * @param svgFile The SVG file, whose name the exported files are named after
+     * @param svg The SVG
+     * @param svgModified When the SVG was last written; exports newer than it are kept when skipping unchanged steps
+     * @throws InterruptedIOException If interrupted while waiting
+     */
+    void submit(File svgFile, byte[] svg, long svgModified) throws InterruptedIOException {
+        String baseName = StepDiagramGenerator.baseName(svgFile);
+        List<Export> exports = new ArrayList<>();
+        if (formats.contains(GeneratorOptions.ExportFormat.PNG)) {
+            exports.add(new Export(new File(svgFile.getParentFile(), baseName + ".png"), png(scaledWidth(svg))));
+        }
+        if (formats.contains(GeneratorOptions.ExportFormat.PDF)) {
+            exports.add(new Export(new File(svgFile.getParentFile(), baseName + ".pdf"), new PDFTranscoder()));
+        }
+        if (thumbnailWidth > 0) {
+            exports.add(new Export(new File(svgFile.getParentFile(), baseName + ".thumb.png"), png(thumbnailWidth)));
+        }
+
+        if (skipUnchanged) {
+            exports.removeIf(export -> export.file.lastModified() >= svgModified);
+        }
+        if (exports.isEmpty()) {
+            return;
+        }
+
+        try {
+            queuedSvgs.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while queuing step diagram exports");
+        }
+        // The SVG is released with the permit once its last export is written
+        AtomicInteger remaining = new AtomicInteger(exports.size());
+        synchronized (pending) {
+            // Only failures are kept for awaitAll to rethrow
+            pending.removeIf(SvgExporter::succeeded);
+            for (int i = 0; i < exports.size(); i++) {
+                Export export = exports.get(i);
+                try {
+                    pending.add(executor.submit(() -> {
+                        try {
+                            transcode(svg, export.transcoder, export.file);
+                        } finally {
+                            if (remaining.decrementAndGet() == 0) {
+                                queuedSvgs.release();
+                            }
+                        }
+                        System.out.println("Exported: " + export.file.getAbsolutePath());
+                        return null;
+                    }));
+                } catch (RejectedExecutionException e) {
+                    // Closed: release the SVG for the exports that were not queued
+                    if (remaining.addAndGet(i - exports.size()) == 0) {
+                        queuedSvgs.release();
+                    }
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the number of SVGs queued for export and not yet written.
+     */
+    int getQueuedSvgs() {
+        return maxQueuedSvgs - queuedSvgs.availablePermits();
+    }
+
+    /**
+     * Returns the number of exports kept for {@link #awaitAll}.
+     */
+    int getPendingExports() {
+        synchronized (pending) {
+            return pending.size();
+        }
+    }
+
+    /**
+     * Waits for every queued export to be written, rethrowing the first failure.
+     */
+    void awaitAll() throws IOException {
+        List<Future<?>> exports;
+        synchronized (pending) {
+            exports = new ArrayList<>(pending);
+            pending.clear();
+        }
+        for (Future<?> export : exports) {
+            try {
+                export.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while exporting step diagrams");
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw new IOException("Error exporting step diagram", cause);
+            }
+        }
+    }
+
+    /**
+     * Stops the export threads, without waiting for exports in progress.
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    private static boolean succeeded(Future<?> export) {
+        if (!export.isDone() || export.isCancelled()) {
+            return false;
+        }
+        try {
+            export.get();
+            return true;
+        } catch (InterruptedException | ExecutionException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns the width in pixels of the SVG at the configured resolution, or 0 if the SVG has no width.
+     */
+    private float scaledWidth(byte[] svg) {
+        // The root element's attributes come first, so its width is found without parsing the document
+        String head = new String(svg, 0, Math.min(svg.length, 4096), StandardCharsets.ISO_8859_1);
+        Matcher width = SVG_WIDTH.matcher(head);
+        return width.find() ? Float.parseFloat(width.group(1)) * dpi / CSS_DPI : 0;
+    }
+
+    private PNGTranscoder png(float width) {
+        PNGTranscoder png = new PNGTranscoder();
+        // Recorded in the PNG, so applications that honour it show the image at its intended size
+        png.addTranscodingHint(SVGAbstractTranscoder.KEY_PIXEL_UNIT_TO_MILLIMETER, 25.4f / dpi);
+        if (width > 0) {
+            png.addTranscodingHint(SVGAbstractTranscoder.KEY_WIDTH, width);
+        }
+        return png;
+    }
+
+    private static void transcode(byte[] svg, Transcoder transcoder, File file) throws IOException {
+        try (OutputStream output = new FileOutputStream(file)) {
+            transcoder.transcode(new TranscoderInput(new ByteArrayInputStream(svg)), new TranscoderOutput(output));
+        } catch (TranscoderException e) {
+            throw new IOException("Error exporting " + file + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * A file to export and the transcoder that writes it.
+     */
+    private static final class Export {
+        private final File file;
+        private final Transcoder transcoder;
+
+        Export(File file, Transcoder transcoder) {
+            this.file = file;
+            this.transcoder = transcoder;
+        }
+    }
+}
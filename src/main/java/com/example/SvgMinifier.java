@@ -0,0 +1,209 @@
+package com.example;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Strips what a browser does not need from PlantUML's SVG output and renames its element IDs in
+ * document order, so that a step whose drawing is unchanged is written byte for byte the same.
+ * <p>
+ * PlantUML seeds the IDs of shadow filters and gradients from the diagram source, and embeds the
+ * encoded source in a comment, so editing a comment or reordering a style include changes the bytes
+ * of every step. The minifier drops comments, processing instructions, indentation, empty
+ * {@code <defs/>}, the randomly coloured dot of error images and attributes set to their default
+ * values, and renames each ID, along with the {@code url(#...)} and {@code href="#..."} references
+ * to it, to a short counter.
+ * <p>
+ * The SVG is processed with no document tree: a first scan collects the declared IDs, so links may
+ * point forward, then one forward pass writes to the output as it goes.
+ */
+final class SvgMinifier {
+    private static final Pattern ATTRIBUTE = Pattern.compile("\\s+([\\w:.-]+)\\s*=\\s*\"([^\"]*)\"");
+    private static final Pattern ID_ATTRIBUTE = Pattern.compile("\\sid\\s*=\\s*\"([^\"]*)\"");
+    // The 1x1 dot at the origin PlantUML draws in a random colour on its error and welcome images
+    private static final Pattern SEED_RECT = Pattern.compile(
+            "<rect fill=\"#[0-9A-Fa-f]{6}\" height=\"1\"(?: style=\"[^\"]*\")? width=\"1\" x=\"0\" y=\"0\"/>");
+    private static final Pattern URL_REFERENCE = Pattern.compile("url\\(#([^)]+)\\)");
+    private static final Map<String, String> DEFAULT_VALUES = Map.of(
+            "lengthAdjust", "spacing",
+            "contentStyleType", "text/css",
+            "zoomAndPan", "magnify");
+
+    private final Set<String> declaredIds;
+    private final Map<String, String> ids = new HashMap<>();
+    private final StringBuilder output = new StringBuilder();
+
+    private SvgMinifier(Set<String> declaredIds) {
+        this.declaredIds = declaredIds;
+    }
+
+    /**
+     * Returns the minified SVG.
+     */
+    static byte[] minify(byte[] svg) {
+        ByteArrayOutputStream minified = new ByteArrayOutputStream(svg.length);
+        try {
+            minify(svg, minified);
+        } catch (IOException e) {
+            throw new IllegalStateException("Writing to memory failed", e);
+        }
+        return minified.toByteArray();
+    }
+
+    /**
+     * Writes the minified SVG to an output stream.
+     */
+    static void minify(byte[] svg, OutputStream out) throws IOException {
+        // ISO-8859-1 maps every byte to one char and back, so text is passed through unchanged
+        String text = new String(svg, StandardCharsets.ISO_8859_1);
+        SvgMinifier minifier = new SvgMinifier(declaredIds(text));
+        int position = 0;
+        while (position < text.length()) {
+            int tagStart = text.indexOf('<', position);
+            if (tagStart < 0) {
+                tagStart = text.length();
+            }
+            minifier.text(text, position, tagStart);
+            if (tagStart == text.length()) {
+                break;
+            }
+            position = minifier.markup(text, tagStart);
+            if (minifier.output.length() >= 8192) {
+                minifier.flush(out);
+            }
+        }
+        minifier.flush(out);
+    }
+
+    /**
+     * Returns every ID the SVG declares, wherever it appears.
+     */
+    private static Set<String> declaredIds(String text) {
+        Set<String> declared = new HashSet<>();
+        Matcher id = ID_ATTRIBUTE.matcher(text);
+        while (id.find()) {
+            declared.add(id.group(1));
+        }
+        return declared;
+    }
+
+    private void flush(OutputStream out) throws IOException {
+        out.write(output.toString().getBytes(StandardCharsets.ISO_8859_1));
+        output.setLength(0);
+    }
+
+    /**
+     * Copies character data, leaving out indentation between tags.
+     */
+    private void text(String text, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (!Character.isWhitespace(text.charAt(i))) {
+                output.append(text, start, end);
+                return;
+            }
+        }
+        if (text.substring(start, end).indexOf('\n') < 0) {
+            output.append(text, start, end);
+        }
+    }
+
+    /**
+     * Copies or drops the markup starting at the given position, returning the position after it.
+     */
+    private int markup(String text, int start) {
+        if (text.startsWith("<!--", start)) {
+            return skipPast(text, start, "-->");
+        }
+        if (text.startsWith("<?", start)) {
+            return skipPast(text, start, "?>");
+        }
+        if (text.startsWith("<![CDATA[", start) || text.startsWith("<!", start) || text.startsWith("</", start)) {
+            int end = text.startsWith("<![CDATA[", start) ? skipPast(text, start, "]]>") : skipPast(text, start, ">");
+            output.append(text, start, end);
+            return end;
+        }
+        int end = tagEnd(text, start);
+        String tag = text.substring(start, end);
+        if (!tag.equals("<defs/>") && !SEED_RECT.matcher(tag).matches()) {
+            tag(tag);
+        }
+        return end;
+    }
+
+    /**
+     * Copies a start tag, leaving out default attributes and renaming IDs and references to them.
+     */
+    private void tag(String tag) {
+        Matcher attribute = ATTRIBUTE.matcher(tag);
+        int copied = 0;
+        while (attribute.find()) {
+            output.append(tag, copied, attribute.start());
+            copied = attribute.end();
+            String name = attribute.group(1);
+            String value = attribute.group(2);
+            if (value.equals(DEFAULT_VALUES.get(name))) {
+                continue;
+            }
+            if (name.equals("id")) {
+                value = rename(value);
+            } else if (name.endsWith("href") && value.startsWith("#") && declaredIds.contains(value.substring(1))) {
+                // Only links to the diagram's own elements, even later ones; other anchors are left to the page
+                value = "#" + rename(value.substring(1));
+            } else if (value.contains("url(#")) {
+                value = renameReferences(value);
+            }
+            output.append(' ').append(name).append("=\"").append(value).append('"');
+        }
+        output.append(tag, copied, tag.length());
+    }
+
+    private String renameReferences(String value) {
+        Matcher reference = URL_REFERENCE.matcher(value);
+        StringBuilder renamed = new StringBuilder();
+        while (reference.find()) {
+            reference.appendReplacement(renamed, Matcher.quoteReplacement("url(#" + rename(reference.group(1)) + ")"));
+        }
+        reference.appendTail(renamed);
+        return renamed.toString();
+    }
+
+    /**
+     * Returns the ID an element is renamed to, numbering IDs in the order they first appear.
+     */
+    private String rename(String id) {
+        return ids.computeIfAbsent(id, key -> "i" + Integer.toString(ids.size(), Character.MAX_RADIX));
+    }
+
+    private static int skipPast(String text, int start, String terminator) {
+        int end = text.indexOf(terminator, start);
+        return end < 0 ? text.length() : end + terminator.length();
+    }
+
+    /**
+     * Returns the position after a tag's closing {@code >}, skipping any inside quoted attribute values.
+     */
+    private static int tagEnd(String text, int start) {
+        char quote = 0;
+        for (int i = start + 1; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+            } else if (c == '>') {
+                return i + 1;
+            }
+        }
+        return text.length();
+    }
+}
@@ -0,0 +1,55 @@
+package com.example;
+
+import org.junit.jupiter.api.Test;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+import org.openjdk.jmh.runner.options.VerboseMode;
+
+import java.util.Collection;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BenchmarksTest {
+
+    @Test
+    public void testEveryBenchmarkRunsAndReportsItsAllocations() throws RunnerException {
+        // One short iteration in this JVM at the smallest sizes, with the profiler the jmh task uses
+        Options options = new OptionsBuilder()
+                .include("com\\.example\\..*Benchmark")
+                .param("stepCount", "10")
+                .param("messageCount", "12")
+                .forks(0)
+                .warmupIterations(0)
+                .measurementIterations(1)
+                .measurementTime(TimeValue.milliseconds(100))
+                .addProfiler(GCProfiler.class)
+                .verbosity(VerboseMode.SILENT)
+                .build();
+        Collection<RunResult> results = new Runner(options).run();
+        assertEquals(10, results.size(), "Each benchmark should run once, at the smallest size");
+
+        Set<String> benchmarks = new TreeSet<>();
+        for (RunResult result : results) {
+            String benchmark = result.getParams().getBenchmark();
+            benchmarks.add(benchmark.substring(benchmark.lastIndexOf('.', benchmark.lastIndexOf('.') - 1) + 1));
+            assertTrue(result.getPrimaryResult().getScore() > 0, benchmark + " " + result.getParams());
+            Result<?> allocated = result.getSecondaryResults().get("gc.alloc.rate.norm");
+            assertNotNull(allocated, benchmark + " should report bytes allocated per operation");
+        }
+        assertEquals(Set.of(
+                "LineClassificationBenchmark.classifier", "LineClassificationBenchmark.regexBaseline",
+                "MetadataExtractionBenchmark.extractor", "MetadataExtractionBenchmark.extractorWithAttributes",
+                "MetadataExtractionBenchmark.gsonMapBaseline",
+                "ParseBenchmark.parseFile", "ParseBenchmark.parseString",
+                "RenderBenchmark.renderSingleStep",
+                "StepBuildingBenchmark.build", "StepBuildingBenchmark.buildAndGenerate"), benchmarks);
+    }
+}
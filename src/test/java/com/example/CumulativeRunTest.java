@@ -0,0 +1,124 @@
+package com.example;
+
+import net.sourceforge.plantuml.FileFormat;
+import net.sourceforge.plantuml.FileFormatOption;
+import net.sourceforge.plantuml.SourceStringReader;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CumulativeRunTest {
+
+    @TempDir
+    Path tempDir;
+
+    private static final String CUMULATIVE = "@startuml\n" +
+            "actor \"User\" as U\n" +
+            "participant Server\n\n" +
+            "' @step {\"name\": \"Step 1: Request\", \"newPage\": true}\n" +
+            "U -> Server: first request\n" +
+            "' @step {\"name\": \"Step 2: Reply & retry\", \"newPage\": false}\n" +
+            "Server --> U : second reply\n" +
+            "note right of U: a note\n" +
+            "U -[#red]>> Server: third retry\n" +
+            "' @step {\"name\": \"Step 3: Done\", \"newPage\": false}\n" +
+            "Server -> Server\n" +
+            "note over U, Server\n" +
+            "  fourth note\n" +
+            "end note\n" +
+            "@enduml";
+
+    @Test
+    public void testDerivedStepsMatchTheirOwnMessages() throws IOException {
+        List<String> sources = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        compose(CUMULATIVE, sources, names);
+
+        CumulativeRun run = CumulativeRun.of(sources, names);
+        assertNotNull(run, "A run adding plain messages and notes should be derivable");
+        List<byte[]> derived = run.derive(render(run.taggedSource()));
+        assertNotNull(derived);
+        assertEquals(3, derived.size());
+
+        assertArrayEquals(render(sources.get(2)), derived.get(2), "The last step should be exactly its own rendering");
+
+        String step1 = new String(derived.get(0), StandardCharsets.UTF_8);
+        assertTrue(step1.contains(">Step 1: Request</text>"), step1);
+        assertTrue(step1.contains("first request"));
+        assertFalse(step1.contains("second reply") || step1.contains("a note") || step1.contains("fourth note"));
+        assertFalse(step1.contains("step-diagram-derived"), "Tags should not be left in the SVG");
+
+        String step2 = new String(derived.get(1), StandardCharsets.UTF_8);
+        assertTrue(step2.contains(">Step 2: Reply &amp; retry</text>"), step2);
+        assertTrue(step2.contains("second reply") && step2.contains("a note") && step2.contains("third retry"));
+        assertFalse(step2.contains("fourth note"));
+        assertEquals(embeddedSource(render(sources.get(1))), embeddedSource(derived.get(1)),
+                "Each step should embed its own source");
+    }
+
+    @Test
+    public void testRunsAddingOtherElementsAreNotDerived() throws IOException {
+        assertNull(of(CUMULATIVE.replace("Server -> Server\n", "activate Server\n")), "Activations span steps");
+        assertNull(of(CUMULATIVE.replace("Server -> Server\n", "Server -> Database\n")), "New participants shift the layout");
+        assertNull(of(CUMULATIVE.replace("Server -> Server\n", "Server -> Server ++\n")), "Activations span steps");
+        assertNull(of(CUMULATIVE.replace("Server --> U : second reply\nnote right of U: a note\n",
+                "note right of U: a note\nServer --> U : second reply\n")), "A step must start with a message");
+        assertNull(of(CUMULATIVE.replace("Step 3: Done", "Step 3: **Done**")), "Titles must be plain text");
+        assertNull(of(CUMULATIVE.replace("U -> Server: first request\n", "U -> Server: first request\nlegend\nKey\nend legend\n")),
+                "A legend is drawn after the messages");
+        assertNull(of(CUMULATIVE.replace("\"newPage\": false", "\"newPage\": true")), "Each step starts a new page");
+    }
+
+    @Test
+    public void testGeneratorDerivesCumulativeSteps() throws IOException {
+        File input = tempDir.resolve("cumulative.puml").toFile();
+        Files.writeString(input.toPath(), CUMULATIVE + "\n' @step {\"name\": \"Step 4: New page\", \"newPage\": true}\nU -> Server: again\n");
+        Path rendered = tempDir.resolve("rendered");
+        Path derived = tempDir.resolve("derived");
+        new StepDiagramGenerator(GeneratorOptions.defaults()).generate(input, rendered.toFile());
+        new StepDiagramGenerator(GeneratorOptions.defaults().deriveCumulativeSteps(true)).generate(input, derived.toFile());
+
+        for (String file : List.of("step-03-step-3-done.svg", "step-04-step-4-new-page.svg", "summary.svg", "index.html")) {
+            assertArrayEquals(Files.readAllBytes(rendered.resolve(file)), Files.readAllBytes(derived.resolve(file)), file);
+        }
+        String step1 = Files.readString(derived.resolve("step-01-step-1-request.svg"));
+        assertTrue(step1.contains("first request") && !step1.contains("second reply"), step1);
+        assertEquals(Files.readString(rendered.resolve("step-02-step-2-reply-retry.puml")),
+                Files.readString(derived.resolve("step-02-step-2-reply-retry.puml")));
+    }
+
+    private static CumulativeRun of(String source) throws IOException {
+        List<String> sources = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        compose(source, sources, names);
+        return CumulativeRun.of(sources, names);
+    }
+
+    private static void compose(String source, List<String> sources, List<String> names) throws IOException {
+        for (Step step : new StepParser().parseString(source)) {
+            sources.add(StepDiagramGenerator.composeStepSource("", step));
+            names.add(step.getName());
+        }
+    }
+
+    private static byte[] render(String source) throws IOException {
+        ByteArrayOutputStream svg = new ByteArrayOutputStream();
+        new SourceStringReader(source).outputImage(svg, new FileFormatOption(FileFormat.SVG));
+        return svg.toByteArray();
+    }
+
+    private static String embeddedSource(byte[] svg) {
+        String text = new String(svg, StandardCharsets.UTF_8);
+        return text.substring(text.indexOf("<!--SRC=["));
+    }
+}
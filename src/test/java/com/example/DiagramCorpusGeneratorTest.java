@@ -0,0 +1,61 @@
+package com.example;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DiagramCorpusGeneratorTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void testSourcesAreDeterministicAndParseToConfiguredSteps() throws IOException {
+        DiagramCorpusGenerator generator = new DiagramCorpusGenerator()
+                .participants(6).steps(25).messagesPerStep(4).noteDensity(0.5).seed(7);
+
+        String source = generator.generateSource(3);
+        assertEquals(source, new DiagramCorpusGenerator()
+                .participants(6).steps(25).messagesPerStep(4).noteDensity(0.5).seed(7).generateSource(3));
+        assertNotEquals(source, generator.generateSource(4), "Different diagrams should differ");
+        assertTrue(source.contains("note "), "Half of the messages should have notes");
+
+        List<Step> steps = new StepParser().parseString(source);
+        assertEquals(25, steps.size());
+        assertEquals("Step 1: Diagram 4", steps.get(0).getName());
+    }
+
+    @Test
+    public void testNewPageRatio() throws IOException {
+        List<Step> continuing = new StepParser().parseString(new DiagramCorpusGenerator().steps(20).newPageRatio(0).generateSource(0));
+        assertTrue(continuing.stream().noneMatch(Step::isNewPage));
+
+        List<Step> paged = new StepParser().parseString(new DiagramCorpusGenerator().steps(20).newPageRatio(1).generateSource(0));
+        assertTrue(paged.stream().allMatch(Step::isNewPage));
+    }
+
+    @Test
+    public void testGeneratesTreeWithIncludeChain() throws IOException {
+        File root = tempDir.resolve("corpus").toFile();
+        List<File> diagrams = new DiagramCorpusGenerator().includeDepth(3).generateTree(root, 5, 2);
+
+        assertEquals(5, diagrams.size());
+        assertEquals(diagrams, StepDiagramGenerator.findPumlFiles(root).stream()
+                .filter(file -> file.getName().startsWith("diagram-"))
+                .toList());
+        assertEquals(new File(root, "group-003/diagram-00005.puml"), diagrams.get(4));
+        assertTrue(new File(root, "style.puml").isFile(), "The style file belongs at the root");
+
+        assertTrue(Files.readString(diagrams.get(0).toPath()).contains("!include ../includes/include-1.puml"));
+        assertTrue(Files.readString(root.toPath().resolve("includes/include-2.puml")).contains("!include include-3.puml"));
+        assertFalse(Files.readString(root.toPath().resolve("includes/include-3.puml")).contains("!include"),
+                "The last include ends the chain");
+    }
+}
@@ -0,0 +1,81 @@
+package com.example;
+
+import com.google.gson.Gson;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class GenerationReportTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void testPercentileUsesNearestRank() {
+        long[] values = {10, 20, 30, 40, 50, 60, 70, 80, 90, 100};
+        assertEquals(50, GenerationReport.percentile(values, 0.50));
+        assertEquals(90, GenerationReport.percentile(values, 0.90));
+        assertEquals(100, GenerationReport.percentile(values, 0.99));
+        assertEquals(10, GenerationReport.percentile(values, 0.0));
+        assertEquals(7, GenerationReport.percentile(new long[] {7}, 0.5));
+        assertEquals(0, GenerationReport.percentile(new long[0], 0.5));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testReportCoversEveryStepAndPhase() throws IOException {
+        String pumlContent = "@startuml\n" +
+                "' @step {\"name\": \"Step 1\", \"newPage\": true}\n" +
+                "Alice -> Bob: Hello\n" +
+                "' @step {\"name\": \"Step 2\", \"newPage\": false}\n" +
+                "Bob --> Alice: Hi\n" +
+                "@enduml";
+        File inputFile = tempDir.resolve("report.puml").toFile();
+        Files.writeString(inputFile.toPath(), pumlContent);
+        File reportFile = tempDir.resolve("reports/timing.json").toFile();
+
+        PrintStream originalOut = System.out;
+        ByteArrayOutputStream summary = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(summary, true, StandardCharsets.UTF_8));
+        try {
+            new StepDiagramGenerator(GeneratorOptions.defaults().timingReport(reportFile))
+                    .generate(inputFile, tempDir.resolve("report").toFile());
+        } finally {
+            System.setOut(originalOut);
+        }
+
+        Map<String, Object> report = new Gson().fromJson(Files.readString(reportFile.toPath()), Map.class);
+        assertEquals(1.0, report.get("files"));
+        assertEquals(3.0, report.get("steps"), "Both steps and the summary should be timed");
+        assertTrue((Double) report.get("svgBytes") > 0);
+
+        Map<String, Object> phases = (Map<String, Object>) report.get("phases");
+        assertEquals(List.of("parse", "compose", "diagram", "layoutAndSvg", "write", "viewer"), List.copyOf(phases.keySet()));
+        double shares = 0;
+        for (Object phase : phases.values()) {
+            shares += (Double) ((Map<String, Object>) phase).get("share");
+        }
+        assertEquals(1.0, shares, 1e-9);
+
+        List<Map<String, Object>> stepTimings = (List<Map<String, Object>>) report.get("stepTimings");
+        assertEquals(List.of("Step 1", "Step 2", "Summary"), stepTimings.stream().map(step -> step.get("step")).toList());
+        for (Map<String, Object> step : stepTimings) {
+            assertTrue((Double) step.get("layoutAndSvgMillis") > 0, "Rendering should be timed: " + step);
+        }
+
+        String printed = summary.toString(StandardCharsets.UTF_8);
+        assertTrue(printed.contains("Generated 1 diagrams, 3 steps"), printed);
+        assertTrue(printed.contains("Slowest steps:"), printed);
+    }
+}
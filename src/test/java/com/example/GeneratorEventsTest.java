@@ -0,0 +1,81 @@
+package com.example;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class GeneratorEventsTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void testGeneratorRecordsFlightRecorderEvents() throws IOException {
+        String pumlContent = "@startuml\n" +
+                "participant Alice\n\n" +
+                "' @step {\"name\": \"Step 1\", \"newPage\": true}\n" +
+                "Alice -> Bob: Hello\n" +
+                "' @step {\"name\": \"Step 2\", \"newPage\": false}\n" +
+                "Bob --> Alice: Hi\n" +
+                "@enduml";
+        File inputFile = tempDir.resolve("events.puml").toFile();
+        Files.writeString(inputFile.toPath(), pumlContent);
+        Path recordingFile = tempDir.resolve("events.jfr");
+
+        try (Recording recording = new Recording()) {
+            for (String event : List.of("FileParsed", "StepComposed", "SvgRendered", "ViewerWritten")) {
+                recording.enable("com.example." + event);
+            }
+            recording.start();
+            new StepDiagramGenerator(GeneratorOptions.defaults()).generate(inputFile, tempDir.resolve("events").toFile());
+            recording.stop();
+            recording.dump(recordingFile);
+        }
+        List<RecordedEvent> events = RecordingFile.readAllEvents(recordingFile);
+
+        List<RecordedEvent> parsed = events(events, "com.example.FileParsed");
+        assertEquals(1, parsed.size());
+        assertEquals(inputFile.getPath(), parsed.get(0).getString("file"));
+        assertEquals(7, parsed.get(0).getInt("lines"), "Blank lines are not counted");
+        assertEquals(2, parsed.get(0).getInt("steps"));
+
+        List<RecordedEvent> composed = events(events, "com.example.StepComposed");
+        assertEquals(List.of("Step 1", "Step 2", "Summary"),
+                composed.stream().map(event -> event.getString("step")).collect(Collectors.toList()));
+        assertTrue(composed.stream().allMatch(event -> event.getInt("characters") > 0));
+
+        List<RecordedEvent> rendered = events(events, "com.example.SvgRendered");
+        assertEquals(3, rendered.size());
+        for (RecordedEvent event : rendered) {
+            assertEquals(inputFile.getPath(), event.getString("file"));
+            assertTrue(event.getLong("bytes") > 0, "SVG size should be recorded");
+            assertTrue(event.getDuration().toNanos() > 0, "Render time should be recorded");
+        }
+        Path step1 = tempDir.resolve("events/step-01-step-1.svg");
+        assertTrue(rendered.stream().anyMatch(event -> "Step 1".equals(event.getString("step"))
+                && event.getLong("bytes") == step1.toFile().length()));
+
+        List<RecordedEvent> viewers = events(events, "com.example.ViewerWritten");
+        assertEquals(1, viewers.size());
+        assertEquals(2, viewers.get(0).getInt("steps"));
+        assertEquals(tempDir.resolve("events/index.html").toFile().length(), viewers.get(0).getLong("bytes"));
+    }
+
+    private static List<RecordedEvent> events(List<RecordedEvent> events, String name) {
+        return events.stream()
+                .filter(event -> event.getEventType().getName().equals(name))
+                .sorted((a, b) -> a.getStartTime().compareTo(b.getStartTime()))
+                .collect(Collectors.toList());
+    }
+}
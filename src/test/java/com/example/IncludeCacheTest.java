@@ -0,0 +1,139 @@
+package com.example;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IncludeCacheTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void testIncludesResolveRelativeToTheIncludingFile() throws IOException {
+        Files.createDirectories(tempDir.resolve("shared/parts"));
+        Files.writeString(tempDir.resolve("shared/common.puml"),
+                "@startuml\n' Shared settings\n!include parts/colors.puml\nskinparam shadowing false\n@enduml\n");
+        Files.writeString(tempDir.resolve("shared/parts/colors.puml"), "!define MAIN #2C3E50\n");
+        File diagrams = Files.createDirectories(tempDir.resolve("diagrams")).toFile();
+
+        IncludeCache includes = new IncludeCache();
+        String source = "@startuml\n!include ../shared/common.puml\n!include <C4/C4_Context>\n!include missing.puml\nA -> B\n@enduml\n";
+        assertEquals("@startuml\n!define MAIN #2C3E50\nskinparam shadowing false\n"
+                        + "!include <C4/C4_Context>\n!include missing.puml\nA -> B\n@enduml\n",
+                includes.expand(source, diagrams));
+        assertEquals(2, includes.size());
+        String plain = "@startuml\nA -> B\n@enduml\n";
+        assertSame(plain, includes.expand(plain, diagrams), "Sources without includes are returned as they are");
+    }
+
+    @Test
+    public void testChangedIncludesAreReadAgain() throws IOException {
+        Path colors = tempDir.resolve("colors.puml");
+        Files.writeString(tempDir.resolve("common.puml"), "!include colors.puml\n");
+        Files.writeString(colors, "skinparam backgroundColor white\n");
+        IncludeCache includes = new IncludeCache();
+        assertEquals("skinparam backgroundColor white\n", includes.expand("!include common.puml\n", tempDir.toFile()));
+
+        Files.writeString(colors, "skinparam backgroundColor black\n");
+        colors.toFile().setLastModified(colors.toFile().lastModified() + 2000);
+        assertEquals("skinparam backgroundColor black\n", includes.expand("!include common.puml\n", tempDir.toFile()),
+                "A change to a nested include should invalidate the file including it");
+
+        Files.writeString(colors, "!include common.puml\n");
+        colors.toFile().setLastModified(colors.toFile().lastModified() + 4000);
+        IOException cycle = assertThrows(IOException.class,
+                () -> includes.expand("!include common.puml\n", tempDir.toFile()));
+        assertTrue(cycle.getMessage().startsWith("Include cycle"), cycle.getMessage());
+    }
+
+    @Test
+    public void testGeneratorInlinesIncludesIntoEveryStep() throws IOException {
+        Files.writeString(tempDir.resolve("style.puml"), "@startuml\nskinparam monochrome true\n@enduml\n");
+        File input = tempDir.resolve("included.puml").toFile();
+        Files.writeString(input.toPath(), "@startuml\n!include style.puml\n"
+                + "' @step {\"name\": \"Step 1\", \"newPage\": true}\nAlice -> Bob: Hello\n"
+                + "' @step {\"name\": \"Step 2\", \"newPage\": true}\nBob -> Alice: Hi\n@enduml");
+        Path output = tempDir.resolve("included");
+        new StepDiagramGenerator(GeneratorOptions.defaults()).generate(input, output.toFile());
+
+        for (String step : new String[] {"step-01-step-1", "step-02-step-2"}) {
+            String source = Files.readString(output.resolve(step + ".puml"));
+            assertTrue(source.contains("skinparam monochrome true\n") && !source.contains("!include"), source);
+        }
+        assertTrue(Files.readString(output.resolve("step-01-step-1.svg")).contains(">Hello</text>"),
+                "The step should render rather than report a missing include");
+    }
+
+    @Test
+    public void testGeneratorRecordsTheFilesEachDiagramIncludes() throws IOException {
+        Files.createDirectories(tempDir.resolve("parts"));
+        Path colors = tempDir.resolve("parts/colors.puml");
+        Files.writeString(tempDir.resolve("parts/common.puml"), "/'\n  Shared settings\n'/\n!include colors.puml\n");
+        Files.writeString(colors, "skinparam monochrome true\n");
+        File including = tempDir.resolve("including.puml").toFile();
+        Files.writeString(including.toPath(), "@startuml\n!include parts/common.puml\nAlice -> Bob: Hello\n@enduml");
+        File plain = tempDir.resolve("plain.puml").toFile();
+        Files.writeString(plain.toPath(), "@startuml\nAlice -> Bob: Hello\n@enduml");
+
+        StepDiagramGenerator generator = new StepDiagramGenerator(GeneratorOptions.defaults());
+        Path output = tempDir.resolve("output");
+        generator.generateFiles(List.of(including, plain), output.toFile());
+        assertEquals(List.of("parts/common.puml", "parts/colors.puml"),
+                Files.readAllLines(output.resolve("including").resolve(StepDiagramGenerator.INCLUDES_FILE_NAME)));
+        assertFalse(Files.exists(output.resolve("plain").resolve(StepDiagramGenerator.INCLUDES_FILE_NAME)));
+        assertTrue(Files.readString(output.resolve("including/step-01-default-step.puml"))
+                .startsWith("@startuml\ntitle Default Step\n\nskinparam monochrome true\nAlice -> Bob"));
+        assertEquals(List.of(), generator.diagramsWithChangedIncludes());
+
+        Files.writeString(colors, "skinparam monochrome false\n");
+        colors.toFile().setLastModified(colors.toFile().lastModified() + 2000);
+        assertEquals(List.of(including.getAbsoluteFile()), generator.diagramsWithChangedIncludes(),
+                "A diagram including a changed nested fragment should be stale");
+    }
+
+    @Test
+    public void testWatcherRegeneratesDiagramsIncludingAChangedFragment() throws Exception {
+        Path inputRoot = Files.createDirectories(tempDir.resolve("watched"));
+        Path fragment = inputRoot.resolve("fragment.iuml");
+        Files.writeString(fragment, "skinparam monochrome true\n");
+        Files.writeString(inputRoot.resolve("diagram.puml"), "@startuml\n!include fragment.iuml\nAlice -> Bob: Hello\n@enduml");
+        Path output = tempDir.resolve("watched-output");
+        Path stepSource = output.resolve("diagram/step-01-default-step.puml");
+
+        DiagramWatcher watcher = new DiagramWatcher(inputRoot.toFile(), output.toFile(), GeneratorOptions.defaults());
+        Thread watchThread = new Thread(() -> {
+            try {
+                watcher.run();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        watchThread.start();
+        try {
+            // The tree is registered before it is first generated
+            awaitContent(stepSource, "skinparam monochrome true\n");
+            Files.writeString(fragment, "skinparam monochrome false\n");
+            awaitContent(stepSource, "skinparam monochrome false\n");
+        } finally {
+            watcher.close();
+            watchThread.join(5_000);
+        }
+    }
+
+    private static void awaitContent(Path file, String expected) throws Exception {
+        long deadline = System.currentTimeMillis() + 20_000;
+        while (!(Files.exists(file) && Files.readString(file).contains(expected))) {
+            assertTrue(System.currentTimeMillis() < deadline, "Timed out waiting for " + file + " to contain " + expected);
+            Thread.sleep(50);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LineClassifierTest {
+    // The patterns the parser used before the classifier; its results must not change
+    private static final Pattern STEP_PATTERN = Pattern.compile("'\\s*@step\\s+(\\{.*\\})");
+    private static final Pattern[] DECLARATION_PATTERNS = {
+            Pattern.compile("(?i)^\\s*participant\\s+.*"),
+            Pattern.compile("(?i)^\\s*actor\\s+.*"),
+            Pattern.compile("(?i)^\\s*!include\\s+.*"),
+            Pattern.compile("(?i)^\\s*participant\\s+\".*\"\\s+as\\s+.*"),
+            Pattern.compile("(?i)^\\s*actor\\s+\".*\"\\s+as\\s+.*")
+    };
+
+    private static final String[] FRAGMENTS = {
+            "'", "@step", "@STEP", "{", "}", "\"name\"", ":", "participant", "PARTICIPANT", "Participant",
+            "actor", "ACTOR", "!include", "!INCLUDE", "!import", "as", "\"", " ", "  ", "\t", "\n", "\r",
+            "\u000B", "\f", "\u0000", "\u0085", "\u2028", "\u2029", "\u00A0", "x", "Alice", "->", "@startuml",
+            "@enduml", "K", "\u212A", "\u0130"
+    };
+
+    @Test
+    public void testClassifiesTypicalLines() {
+        assertEquals(LineClassifier.Kind.STEP_MARKER, LineClassifier.classify("' @step {\"name\": \"Login\"}"));
+        assertEquals(LineClassifier.Kind.STEP_MARKER, LineClassifier.classify("Alice -> Bob ' @step {}"));
+        assertEquals(LineClassifier.Kind.PARTICIPANT, LineClassifier.classify("  participant \"Web Server\" as WS"));
+        assertEquals(LineClassifier.Kind.PARTICIPANT, LineClassifier.classify("Actor User"));
+        assertEquals(LineClassifier.Kind.INCLUDE, LineClassifier.classify("!include common.puml"));
+        assertEquals(LineClassifier.Kind.BLANK, LineClassifier.classify(" \t "));
+        assertEquals(LineClassifier.Kind.CONTENT, LineClassifier.classify("participants -> actor"));
+        assertEquals(LineClassifier.Kind.CONTENT, LineClassifier.classify("' @step"));
+        assertEquals(LineClassifier.Kind.CONTENT, LineClassifier.classify("actor"));
+
+        assertEquals("{\"a\": {\"b\": 1}}", LineClassifier.stepMarkerJson("'@step x ' @step {\"a\": {\"b\": 1}} trailing"));
+        assertNull(LineClassifier.stepMarkerJson("Alice -> Bob"));
+    }
+
+    @Test
+    public void testMatchesLegacyPatternsOnEdgeCases() {
+        List<String> lines = List.of(
+                "", " ", "'@step {}", "'@step{}", "' @step\t{}", "'\n@step\n{x}", "' @step {\u2028}", "' @step {}\u2028}",
+                "' @step {} ' @step {}}", "'' @step {}", "' @step { ", "participant", "participant ", "participant  x",
+                "participant\tx", "participant\nx", "participant x\n", "participant\n", "\u0000participant x",
+                "actor\u000Bx", "actorx", "!include", "!include\u0085", "!includes x", "!import x", "PaRtIcIpAnT x",
+                "participant \"A\" as B", "\u00A0actor x", "\u0000", "\u0000 \u001F", "@startuml", " @enduml ",
+                "@endumlx", "  !import lib", "\u212Aactor x", "act\u0130r x", "!include x\u2028", "participant \u2029");
+
+        for (String line : lines) {
+            assertMatchesLegacy(line);
+        }
+    }
+
+    @Test
+    public void testMatchesLegacyPatternsOnRandomLines() {
+        Random random = new Random(20240611L);
+        for (int i = 0; i < 50_000; i++) {
+            StringBuilder line = new StringBuilder();
+            int fragments = random.nextInt(8);
+            for (int j = 0; j < fragments; j++) {
+                line.append(FRAGMENTS[random.nextInt(FRAGMENTS.length)]);
+            }
+            assertMatchesLegacy(line.toString());
+        }
+    }
+
+    private static void assertMatchesLegacy(String line) {
+        String description = "line: \"" + escape(line) + "\"";
+
+        Matcher matcher = STEP_PATTERN.matcher(line);
+        boolean legacyMarker = matcher.find();
+        assertEquals(legacyMarker, LineClassifier.isStepMarker(line), description);
+        assertEquals(legacyMarker ? matcher.group(1) : null, LineClassifier.stepMarkerJson(line), description);
+
+        LineClassifier.Kind expected;
+        if (legacyMarker) {
+            expected = LineClassifier.Kind.STEP_MARKER;
+        } else if (isLegacyDeclaration(line)) {
+            expected = line.trim().toLowerCase(Locale.ROOT).startsWith("!include")
+                    ? LineClassifier.Kind.INCLUDE : LineClassifier.Kind.PARTICIPANT;
+        } else if (line.trim().isEmpty()) {
+            expected = LineClassifier.Kind.BLANK;
+        } else {
+            expected = LineClassifier.Kind.CONTENT;
+        }
+        assertEquals(expected, LineClassifier.classify(line), description);
+
+        String trimmed = line.trim();
+        String lowerCase = trimmed.toLowerCase(Locale.ROOT);
+        assertEquals(lowerCase.startsWith("participant ") || lowerCase.startsWith("actor "),
+                LineClassifier.isParticipantDeclaration(line), description);
+        assertEquals(trimmed.startsWith("!import") || trimmed.startsWith("!include"),
+                LineClassifier.isHeaderDirective(line), description);
+        assertEquals(trimmed.startsWith("@startuml") || trimmed.equals("@enduml"),
+                LineClassifier.isStartOrEndTag(line), description);
+        assertEquals(trimmed.isEmpty(), LineClassifier.isBlank(line), description);
+    }
+
+    private static boolean isLegacyDeclaration(String line) {
+        for (Pattern pattern : DECLARATION_PATTERNS) {
+            if (pattern.matcher(line).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String escape(String line) {
+        StringBuilder escaped = new StringBuilder();
+        for (char c : line.toCharArray()) {
+            if (c < ' ' || c > '~') {
+                escaped.append(String.format("\\u%04X", (int) c));
+            } else {
+                escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+}
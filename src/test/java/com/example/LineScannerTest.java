@@ -0,0 +1,99 @@
+package com.example;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LineScannerTest {
+
+    @TempDir
+    Path tempDir;
+
+    private static final String[] FRAGMENTS = {
+            "\n", "\r", "\r\n", " ", "\t", "\u0000", "a", "participant x", "' @step {}", "\u00E9", "\u20AC",
+            "\uD83D\uDE00", "\u2028", "\uFEFF"
+    };
+
+    @Test
+    public void testSkipsBlankLinesAndHandlesEveryTerminator() throws IOException {
+        byte[] input = "@startuml\r\n\r\n  \t\nAlice -> Bob\rBob -> Alice: caf\u00E9\n \n@enduml"
+                .getBytes(StandardCharsets.UTF_8);
+        assertEquals(List.of("@startuml", "Alice -> Bob", "Bob -> Alice: caf\u00E9", "@enduml"), scan(input, 4));
+        assertEquals(List.of(), scan(new byte[0], 4));
+        assertEquals(List.of("x"), scan("x\r".getBytes(StandardCharsets.UTF_8), 1));
+    }
+
+    @Test
+    public void testReadsFile() throws IOException {
+        Path file = tempDir.resolve("lines.puml");
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 20_000; i++) {
+            content.append("Alice -> Bob: message ").append(i).append(" \u2192 ok\n\n");
+        }
+        Files.writeString(file, content, StandardCharsets.UTF_8);
+
+        int lines = 0;
+        try (LineScanner scanner = LineScanner.open(file)) {
+            String line;
+            while ((line = scanner.nextLine()) != null) {
+                assertEquals("Alice -> Bob: message " + lines + " \u2192 ok", line);
+                lines++;
+            }
+        }
+        assertEquals(20_000, lines);
+    }
+
+    @Test
+    public void testMatchesBufferedReaderOnRandomInput() throws IOException {
+        Random random = new Random(20240612L);
+        for (int i = 0; i < 2_000; i++) {
+            StringBuilder text = new StringBuilder();
+            int fragments = random.nextInt(30);
+            for (int j = 0; j < fragments; j++) {
+                text.append(FRAGMENTS[random.nextInt(FRAGMENTS.length)]);
+            }
+            byte[] input = text.toString().getBytes(StandardCharsets.UTF_8);
+            int bufferSize = 1 + random.nextInt(8);
+            assertEquals(readNonBlankLines(input), scan(input, bufferSize),
+                    "Buffer size " + bufferSize + ", input: " + text.toString().replace("\r", "\\r").replace("\n", "\\n"));
+        }
+    }
+
+    private static List<String> scan(byte[] input, int bufferSize) throws IOException {
+        List<String> lines = new ArrayList<>();
+        try (LineScanner scanner = new LineScanner(Channels.newChannel(new ByteArrayInputStream(input)), bufferSize)) {
+            String line;
+            while ((line = scanner.nextLine()) != null) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+
+    private static List<String> readNonBlankLines(byte[] input) throws IOException {
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new ByteArrayInputStream(input), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.trim().isEmpty()) {
+                    lines.add(line);
+                }
+            }
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,160 @@
+package com.example;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RenderCacheTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void testCacheHitCopiesStoredSvg() throws IOException {
+        RenderCache cache = RenderCache.open(tempDir.resolve("cache"), 1024);
+        String key = RenderCache.key("@startuml\nAlice -> Bob\n@enduml\n");
+
+        Path target = tempDir.resolve("out.svg");
+        assertFalse(cache.copyTo(key, target), "Empty cache should miss");
+
+        cache.put(key, "<svg/>".getBytes(StandardCharsets.UTF_8));
+        assertTrue(cache.copyTo(key, target), "Stored entry should hit");
+        assertEquals("<svg/>", Files.readString(target));
+        assertArrayEquals("<svg/>".getBytes(StandardCharsets.UTF_8), cache.read(key));
+    }
+
+    @Test
+    public void testKeyDependsOnSource() {
+        assertEquals(RenderCache.key("A -> B"), RenderCache.key("A -> B"));
+        assertNotEquals(RenderCache.key("A -> B"), RenderCache.key("A -> C"));
+    }
+
+    @Test
+    public void testKeyDependsOnIncludedFiles() throws IOException {
+        Path themes = Files.createDirectories(tempDir.resolve("themes"));
+        Path colors = tempDir.resolve("colors.iuml");
+        Files.writeString(tempDir.resolve("common.iuml"), "!include colors.iuml\n");
+        Files.writeString(colors, "skinparam monochrome true\n");
+        Path theme = themes.resolve("puml-theme-mine.puml");
+        Files.writeString(theme, "skinparam shadowing false\n");
+        String including = "@startuml\n!include " + tempDir.resolve("common.iuml") + "\nA -> B\n@enduml\n";
+        String themed = "@startuml\n!theme mine from \"" + themes + "\"\nA -> B\n@enduml\n";
+        String key = RenderCache.key(including);
+        String themedKey = RenderCache.key(themed);
+        assertEquals(key, RenderCache.key(including));
+
+        Files.writeString(colors, "skinparam monochrome false\n");
+        assertNotEquals(key, RenderCache.key(including), "A change to a nested include should change the key");
+        Files.writeString(theme, "skinparam shadowing true\n");
+        assertNotEquals(themedKey, RenderCache.key(themed), "A change to a theme should change the key");
+
+        assertNull(RenderCache.key("@startuml\n!includeurl https://example.com/x.puml\nA -> B\n@enduml\n"));
+        assertNull(RenderCache.key("@startuml\n!include https://example.com/x.puml\nA -> B\n@enduml\n"));
+        assertNotNull(RenderCache.key("@startuml\n!include <C4/C4_Context>\nA -> B\n@enduml\n"),
+                "The standard library comes with the PlantUML version");
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEntryIsEvicted() throws IOException {
+        RenderCache cache = RenderCache.open(tempDir.resolve("cache"), 20);
+        cache.put("first", new byte[8]);
+        cache.put("second", new byte[8]);
+
+        // Touch the first entry so the second becomes least recently used
+        assertNotNull(cache.read("first"));
+        cache.put("third", new byte[8]);
+
+        assertNotNull(cache.read("first"), "Recently used entry should be kept");
+        assertNull(cache.read("second"), "Least recently used entry should be evicted");
+        assertNotNull(cache.read("third"), "New entry should be kept");
+        assertEquals(16, cache.size());
+        assertFalse(Files.exists(tempDir.resolve("cache").resolve("second.svg")), "Evicted file should be deleted");
+    }
+
+    @Test
+    public void testReopenedCacheKeepsEntriesAndOrder() throws IOException {
+        Path directory = tempDir.resolve("cache");
+        RenderCache cache = RenderCache.open(directory, 100);
+        cache.put("older", new byte[10]);
+        cache.put("newer", new byte[10]);
+        Files.setLastModifiedTime(directory.resolve("older.svg"), FileTime.fromMillis(1_000));
+        Files.setLastModifiedTime(directory.resolve("newer.svg"), FileTime.fromMillis(2_000));
+
+        RenderCache reopened = RenderCache.open(directory, 15);
+        assertEquals(10, reopened.size(), "Reopening with a smaller bound should evict down to it");
+        assertNull(reopened.read("older"), "Oldest entry should be evicted first");
+        assertNotNull(reopened.read("newer"));
+    }
+
+    @Test
+    public void testCachesSharingADirectoryShareEntriesAndBound() throws IOException {
+        Path directory = tempDir.resolve("cache");
+        RenderCache first = RenderCache.open(directory, 40);
+        RenderCache second = RenderCache.open(directory, 40);
+        first.put("stored-by-first", new byte[10]);
+        assertArrayEquals(new byte[10], second.read("stored-by-first"), "An entry another process stored should hit");
+
+        for (int i = 0; i < 6; i++) {
+            (i % 2 == 0 ? first : second).put("entry-" + i, new byte[10]);
+            assertTrue(directorySize(directory) <= 40, "The bound applies to the directory: " + directorySize(directory));
+        }
+        assertNotNull(first.read("entry-5"), "The latest entry should be kept");
+    }
+
+    @Test
+    public void testGeneratorRendersAgainWhenAnIncludedFileChanges() throws IOException {
+        Path fragment = tempDir.resolve("fragment.iuml");
+        Files.writeString(fragment, "Alice -> Bob: Hello\n");
+        String source = "@startuml\n' @step {\"name\": \"Step 1\"}\n!include " + fragment + "\n@enduml";
+        GeneratorOptions options = GeneratorOptions.defaults().renderCache(tempDir.resolve("render-cache").toFile(), 10 * 1024 * 1024);
+
+        String first = new String(new StepDiagramGenerator(options).renderSteps(source).get(0).getSvg(), StandardCharsets.UTF_8);
+        assertTrue(first.contains(">Hello</text>"), first);
+        Files.writeString(fragment, "Alice -> Bob: Goodbye\n");
+        String second = new String(new StepDiagramGenerator(options).renderSteps(source).get(0).getSvg(), StandardCharsets.UTF_8);
+        assertTrue(second.contains(">Goodbye</text>"), "A changed include should not be served from the cache");
+    }
+
+    @Test
+    public void testGeneratorReusesCachedRenders() throws IOException {
+        String pumlContent = "@startuml\n" +
+                "' @step {\"name\": \"Step 1\", \"newPage\": false}\n" +
+                "Alice -> Bob: Hello\n" +
+                "' @step {\"name\": \"Step 2\", \"newPage\": false}\n" +
+                "Bob --> Alice: Hi\n" +
+                "@enduml";
+        File inputFile = tempDir.resolve("cached.puml").toFile();
+        Files.writeString(inputFile.toPath(), pumlContent);
+        Path cacheDir = tempDir.resolve("render-cache");
+        GeneratorOptions options = GeneratorOptions.defaults().renderCache(cacheDir.toFile(), 10 * 1024 * 1024);
+
+        Path firstRun = tempDir.resolve("first");
+        new StepDiagramGenerator(options).generate(inputFile, firstRun.toFile());
+        long cachedEntries = Files.list(cacheDir).filter(path -> path.toString().endsWith(".svg")).count();
+        assertEquals(3, cachedEntries, "Both steps and the summary should be cached");
+
+        Path secondRun = tempDir.resolve("second");
+        new StepDiagramGenerator(options).generate(inputFile, secondRun.toFile());
+        for (String fileName : new String[] {"step-01-step-1.svg", "step-02-step-2.svg", "summary.svg"}) {
+            assertArrayEquals(Files.readAllBytes(firstRun.resolve(fileName)), Files.readAllBytes(secondRun.resolve(fileName)),
+                    fileName + " should be served from the cache unchanged");
+        }
+        assertEquals(cachedEntries, Files.list(cacheDir).filter(path -> path.toString().endsWith(".svg")).count(),
+                "A second run with unchanged sources should not add entries");
+    }
+
+    private static long directorySize(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.mapToLong(file -> file.toFile().length()).sum();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.example;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeFalse;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+public class StartScriptsTest {
+    private static final String APPLICATION = "plantumlsequence";
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void testUnixScriptUsesTheArchiveOnlyWhenItIsInstalled() throws Exception {
+        assumeFalse(System.getProperty("os.name").startsWith("Windows"));
+        Path scripts = scriptsDir();
+        Path appHome = Files.createDirectories(tempDir.resolve("app"));
+        Path script = Files.copy(scripts.resolve(APPLICATION), Files.createDirectories(appHome.resolve("bin")).resolve(APPLICATION));
+        Path lib = Files.createDirectories(appHome.resolve("lib"));
+        // A stand-in java that prints the arguments the script starts it with
+        Path javaHome = tempDir.resolve("jdk");
+        Path java = Files.createDirectories(javaHome.resolve("bin")).resolve("java");
+        Files.writeString(java, "#!/bin/sh\nfor argument in \"$@\"; do echo \"$argument\"; done\n");
+        assertTrue(java.toFile().setExecutable(true) && script.toFile().setExecutable(true));
+
+        List<String> withoutArchive = run(script, javaHome);
+        assertTrue(withoutArchive.contains("com.example.Main"), withoutArchive.toString());
+        assertFalse(withoutArchive.stream().anyMatch(argument -> argument.startsWith("-XX:SharedArchiveFile")),
+                "A missing archive would turn off sharing: " + withoutArchive);
+
+        Path archive = Files.createFile(lib.resolve(APPLICATION + ".jsa"));
+        List<String> withArchive = run(script, javaHome);
+        assertEquals("-XX:SharedArchiveFile=" + archive.toRealPath(), withArchive.get(0), withArchive.toString());
+    }
+
+    @Test
+    public void testWindowsScriptUsesTheArchiveOnlyWhenItIsInstalled() throws IOException {
+        String script = Files.readString(scriptsDir().resolve(APPLICATION + ".bat"));
+        assertTrue(script.contains("set DEFAULT_JVM_OPTS=\r\nif exist \"%APP_HOME%\\lib\\" + APPLICATION + ".jsa\" "
+                + "set DEFAULT_JVM_OPTS=\"-XX:SharedArchiveFile=%APP_HOME%\\lib\\" + APPLICATION + ".jsa\"\r\n"), script);
+    }
+
+    private static Path scriptsDir() {
+        String scripts = System.getProperty("startScripts.dir");
+        assumeTrue(scripts != null, "The start scripts are generated by the Gradle build");
+        return Path.of(scripts);
+    }
+
+    private static List<String> run(Path script, Path javaHome) throws Exception {
+        ProcessBuilder builder = new ProcessBuilder(script.toString(), "--help").redirectErrorStream(true);
+        builder.environment().put("JAVA_HOME", javaHome.toString());
+        builder.environment().remove("JAVA_OPTS");
+        builder.environment().remove("PLANTUMLSEQUENCE_OPTS");
+        Process process = builder.start();
+        String output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+        assertTrue(process.waitFor(20, TimeUnit.SECONDS));
+        assertEquals(0, process.exitValue(), output);
+        return Arrays.asList(output.split("\n"));
+    }
+}
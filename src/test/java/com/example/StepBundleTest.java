@@ -0,0 +1,85 @@
+package com.example;
+
+import com.google.gson.Gson;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StepBundleTest {
+
+    @TempDir
+    Path tempDir;
+
+    private static final String SOURCE = "@startuml\n" +
+            "' @step {\"name\": \"Step 1: Hello\", \"newPage\": true}\n" +
+            "Alice -> Bob: Hello\n" +
+            "' @step {\"name\": \"Step 2: Reply\", \"newPage\": false}\n" +
+            "Bob --> Alice: Hi\n" +
+            "' @step {\"name\": \"Step 3: Again\", \"newPage\": true}\n" +
+            "Alice -> Bob: Again\n" +
+            "@enduml";
+
+    private static final List<String> STEP_FILES = List.of(
+            "step-01-step-1-hello.svg", "step-02-step-2-reply.svg", "step-03-step-3-again.svg");
+
+    @Test
+    public void testBundleHoldsEveryStepSvgInOrder() throws IOException {
+        Path output = generate(GeneratorOptions.defaults().bundleSteps(true));
+
+        String script = Files.readString(output.resolve(StepBundle.FILE_NAME));
+        assertTrue(script.startsWith("stepBundleLoaded(\"") && script.endsWith("\");\n"));
+        byte[] compressed = Base64.getDecoder().decode(script.substring(script.indexOf('"') + 1, script.lastIndexOf('"')));
+        byte[] svgs;
+        try (InputStream input = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            svgs = input.readAllBytes();
+        }
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        long[] lengths = new long[STEP_FILES.size()];
+        for (int i = 0; i < STEP_FILES.size(); i++) {
+            byte[] svg = Files.readAllBytes(output.resolve(STEP_FILES.get(i)));
+            lengths[i] = svg.length;
+            expected.write(svg);
+        }
+        assertArrayEquals(expected.toByteArray(), svgs, "The bundle should be the step SVGs, which are still written");
+        assertTrue(compressed.length < svgs.length / 2, "Repeated steps should compress well");
+
+        String html = Files.readString(output.resolve("index.html"));
+        String descriptor = html.substring(html.indexOf("const bundle = ") + "const bundle = ".length(), html.indexOf(";", html.indexOf("const bundle = ")));
+        Map<?, ?> bundle = new Gson().fromJson(descriptor, Map.class);
+        assertEquals(StepBundle.FILE_NAME, bundle.get("file"));
+        List<?> bundleLengths = (List<?>) bundle.get("lengths");
+        for (int i = 0; i < lengths.length; i++) {
+            assertEquals(lengths[i], ((Number) bundleLengths.get(i)).longValue(), STEP_FILES.get(i));
+        }
+    }
+
+    @Test
+    public void testViewerLoadsStepSvgsWithoutBundle() throws IOException {
+        Path output = generate(GeneratorOptions.defaults());
+
+        assertFalse(Files.exists(output.resolve(StepBundle.FILE_NAME)));
+        assertTrue(Files.readString(output.resolve("index.html")).contains("const bundle = null;"));
+    }
+
+    private Path generate(GeneratorOptions options) throws IOException {
+        File input = tempDir.resolve("bundle.puml").toFile();
+        Files.writeString(input.toPath(), SOURCE);
+        Path output = tempDir.resolve("out");
+        new StepDiagramGenerator(options).generate(input, output.toFile());
+        return output;
+    }
+}
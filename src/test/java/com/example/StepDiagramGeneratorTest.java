@@ -3,13 +3,23 @@ package com.example;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -143,6 +153,262 @@ public class StepDiagramGeneratorTest {
         assertTrue(Files.exists(outputDir.resolve("summary.svg")), "Summary SVG file should exist");
     }
     
+    @Test
+    public void testGenerateStepDiagramsForTree() throws IOException {
+        String pumlContent = "@startuml\n" +
+                "actor User\n" +
+                "participant System\n\n" +
+                "' @step {\"name\": \"Step 1: Request\", \"newPage\": false}\n" +
+                "User -> System: Request\n\n" +
+                "' @step {\"name\": \"Step 2: Response\", \"newPage\": false}\n" +
+                "System --> User: Response\n" +
+                "@enduml";
+        
+        Path inputRoot = tempDir.resolve("diagrams");
+        Files.createDirectories(inputRoot.resolve("nested"));
+        Files.writeString(inputRoot.resolve("first.puml"), pumlContent);
+        Files.writeString(inputRoot.resolve("nested").resolve("second.puml"), pumlContent);
+        Files.writeString(inputRoot.resolve("notes.txt"), "not a diagram");
+        
+        Path outputRoot = tempDir.resolve("generated");
+        StepDiagramGenerator.generateStepDiagramsForTree(inputRoot.toFile(), outputRoot.toFile());
+        
+        // Each diagram gets its own output directory named after the file
+        for (String name : List.of("first", "second")) {
+            Path diagramDir = outputRoot.resolve(name);
+            assertTrue(Files.exists(diagramDir.resolve("step-01-step-1-request.svg")), name + " step 1 SVG should exist");
+            assertTrue(Files.exists(diagramDir.resolve("step-02-step-2-response.svg")), name + " step 2 SVG should exist");
+            assertTrue(Files.exists(diagramDir.resolve("index.html")), name + " viewer should exist");
+        }
+        assertFalse(Files.exists(outputRoot.resolve("notes")), "Non-PlantUML files should be ignored");
+    }
+    
+    @Test
+    public void testParallelRenderingMatchesSequentialOutput() throws IOException {
+        StringBuilder pumlContent = new StringBuilder("@startuml\nactor User\nparticipant System\n\n");
+        for (int i = 1; i <= 8; i++) {
+            pumlContent.append("' @step {\"name\": \"Step ").append(i).append("\", \"newPage\": false}\n")
+                    .append("User -> System: Request ").append(i).append("\n")
+                    .append("System --> User: Response ").append(i).append("\n\n");
+        }
+        pumlContent.append("@enduml");
+        
+        File tempFile = tempDir.resolve("parallel.puml").toFile();
+        Files.writeString(tempFile.toPath(), pumlContent);
+        
+        Path sequentialDir = tempDir.resolve("sequential");
+        Path parallelDir = tempDir.resolve("parallel");
+        new StepDiagramGenerator(GeneratorOptions.defaults()).generate(tempFile, sequentialDir.toFile());
+        new StepDiagramGenerator(GeneratorOptions.defaults().renderThreads(4)).generate(tempFile, parallelDir.toFile());
+        
+        List<String> sequentialFiles = Files.list(sequentialDir).map(path -> path.getFileName().toString()).sorted().collect(Collectors.toList());
+        List<String> parallelFiles = Files.list(parallelDir).map(path -> path.getFileName().toString()).sorted().collect(Collectors.toList());
+        assertEquals(sequentialFiles, parallelFiles, "Parallel rendering should produce the same files");
+        
+        for (String fileName : sequentialFiles) {
+            assertArrayEquals(Files.readAllBytes(sequentialDir.resolve(fileName)), Files.readAllBytes(parallelDir.resolve(fileName)),
+                    fileName + " should be identical in both modes");
+        }
+    }
+    
+    @Test
+    public void testRenderStepsInMemory() throws IOException {
+        String pumlContent = "@startuml\n" +
+                "actor User\n" +
+                "participant System\n\n" +
+                "' @step {\"name\": \"Step 1: Request\", \"newPage\": false}\n" +
+                "User -> System: Request\n\n" +
+                "' @step {\"name\": \"Step 2: Response\", \"newPage\": false}\n" +
+                "System --> User: Response\n" +
+                "@enduml";
+        
+        StepDiagramGenerator generator = new StepDiagramGenerator(GeneratorOptions.defaults());
+        List<RenderedStep> rendered = generator.renderSteps(pumlContent);
+        
+        assertEquals(2, rendered.size(), "Should render both steps");
+        assertEquals("step-01-step-1-request", rendered.get(0).getFileName());
+        assertEquals("step-02-step-2-response", rendered.get(1).getFileName());
+        assertTrue(rendered.get(1).getSource().startsWith("@startuml\ntitle Step 2: Response"), "Source should carry the step title");
+        assertTrue(rendered.get(1).getSource().contains("User -> System: Request"), "Cumulative step should carry earlier content");
+        for (RenderedStep step : rendered) {
+            String svg = new String(step.getSvg(), StandardCharsets.UTF_8);
+            assertTrue(svg.contains("<svg"), step.getName() + " should be rendered as SVG");
+        }
+        
+        // Streaming to caller-supplied outputs produces the same bytes
+        Map<Integer, ByteArrayOutputStream> outputs = new ConcurrentHashMap<>();
+        generator.renderSteps(pumlContent, (index, step, fileName) -> outputs.computeIfAbsent(index, i -> new ByteArrayOutputStream()));
+        assertEquals(2, outputs.size(), "Should open one output per step");
+        assertArrayEquals(rendered.get(0).getSvg(), outputs.get(0).toByteArray());
+    }
+    
+    @Test
+    public void testGenerateWithoutStepSources() throws IOException {
+        String pumlContent = "@startuml\n" +
+                "' @step {\"name\": \"Only Step\", \"newPage\": false}\n" +
+                "Alice -> Bob: Hello\n" +
+                "@enduml";
+        File tempFile = tempDir.resolve("no_sources.puml").toFile();
+        Files.writeString(tempFile.toPath(), pumlContent);
+        
+        Path outputDir = tempDir.resolve("no_sources");
+        new StepDiagramGenerator(GeneratorOptions.defaults().writeStepSources(false)).generate(tempFile, outputDir.toFile());
+        
+        assertTrue(Files.exists(outputDir.resolve("step-01-only-step.svg")), "SVG should be generated");
+        assertTrue(Files.exists(outputDir.resolve("summary.svg")), "Summary SVG should be generated");
+        assertEquals(0, Files.list(outputDir).filter(path -> path.toString().endsWith(".puml")).count(),
+                "No intermediate PUML files should be written");
+    }
+    
+    @Test
+    public void testGenerateGzippedOutputs() throws IOException {
+        String pumlContent = "@startuml\n" +
+                "' @step {\"name\": \"Only Step\", \"newPage\": false}\n" +
+                "Alice -> Bob: Hello\n" +
+                "@enduml";
+        File tempFile = tempDir.resolve("gzipped.puml").toFile();
+        Files.writeString(tempFile.toPath(), pumlContent);
+        Path outputDir = tempDir.resolve("gzipped");
+        Path svg = outputDir.resolve("step-01-only-step.svg");
+        Path html = outputDir.resolve("index.html");
+
+        new StepDiagramGenerator(GeneratorOptions.defaults().compression(GeneratorOptions.Compression.GZIP_ALONGSIDE))
+                .generate(tempFile, outputDir.toFile());
+        for (Path plain : List.of(svg, html, outputDir.resolve("summary.svg"))) {
+            assertArrayEquals(Files.readAllBytes(plain), gunzip(Path.of(plain + ".gz")), plain.toString());
+        }
+
+        new StepDiagramGenerator(GeneratorOptions.defaults().compression(GeneratorOptions.Compression.GZIP_ONLY))
+                .generate(tempFile, outputDir.toFile());
+        assertFalse(Files.exists(svg) || Files.exists(html), "Plain files should not be left next to gzipped ones");
+        assertTrue(new String(gunzip(Path.of(svg + ".gz")), StandardCharsets.UTF_8).contains("<svg"));
+        assertTrue(new String(gunzip(Path.of(html + ".gz")), StandardCharsets.UTF_8).contains("step-01-only-step.svg.gz"),
+                "The viewer should load the gzipped steps");
+
+        new StepDiagramGenerator(GeneratorOptions.defaults()).generate(tempFile, outputDir.toFile());
+        assertTrue(Files.exists(svg) && Files.exists(html));
+        assertFalse(Files.exists(Path.of(svg + ".gz")), "Stale gzipped files should be removed");
+    }
+
+    private static byte[] gunzip(Path file) throws IOException {
+        try (InputStream input = new GZIPInputStream(Files.newInputStream(file))) {
+            return input.readAllBytes();
+        }
+    }
+
+    @Test
+    public void testSkipUnchangedStepsRendersOnlyChangedSteps() throws IOException {
+        String pumlContent = "@startuml\n" +
+                "' @step {\"name\": \"Step 1\", \"newPage\": true}\n" +
+                "Alice -> Bob: Hello\n" +
+                "' @step {\"name\": \"Step 2\", \"newPage\": true}\n" +
+                "Bob --> Alice: Hi\n" +
+                "@enduml";
+        File tempFile = tempDir.resolve("skip.puml").toFile();
+        Files.writeString(tempFile.toPath(), pumlContent);
+        Path outputDir = tempDir.resolve("skip");
+        
+        StepDiagramGenerator generator = new StepDiagramGenerator(GeneratorOptions.defaults().skipUnchangedSteps(true));
+        generator.generate(tempFile, outputDir.toFile());
+        
+        // Mark both SVGs so we can tell whether they are rendered again
+        Path step1 = outputDir.resolve("step-01-step-1.svg");
+        Path step2 = outputDir.resolve("step-02-step-2.svg");
+        Files.writeString(step1, "unchanged");
+        Files.writeString(step2, "unchanged");
+        
+        Files.writeString(tempFile.toPath(), pumlContent.replace("Bob --> Alice: Hi", "Bob --> Alice: Hello again"));
+        generator.generate(tempFile, outputDir.toFile());
+        
+        assertEquals("unchanged", Files.readString(step1), "Step with unchanged source should not be re-rendered");
+        assertTrue(Files.readString(step2).contains("<svg"), "Step with changed source should be re-rendered");
+    }
+    
+    @Test
+    public void testWatcherRegeneratesChangedFiles() throws Exception {
+        Path inputRoot = tempDir.resolve("watched");
+        Files.createDirectories(inputRoot);
+        Path outputRoot = tempDir.resolve("watched-output");
+        
+        GeneratorOptions options = GeneratorOptions.defaults();
+        DiagramWatcher watcher = new DiagramWatcher(inputRoot.toFile(), outputRoot.toFile(), options);
+        assertFalse(options.isSkipUnchangedSteps(), "The caller's options should be left as they are");
+        BlockingQueue<List<File>> generations = new LinkedBlockingQueue<>();
+        watcher.setGenerationListener(generations::add);
+        Thread watchThread = startWatching(watcher);
+        try {
+            // The tree is registered before it is first generated
+            assertNotNull(generations.poll(20, TimeUnit.SECONDS), "The tree should be generated when watching starts");
+            Path live = inputRoot.resolve("live.puml");
+            Files.writeString(live, "@startuml\n" +
+                    "' @step {\"name\": \"Live Step\", \"newPage\": false}\n" +
+                    "Alice -> Bob: Hello\n" +
+                    "@enduml");
+            
+            awaitGeneration(generations, live.toFile());
+            assertTrue(Files.exists(outputRoot.resolve("live").resolve("step-01-live-step.svg")),
+                    "New diagram should be generated while watching");
+        } finally {
+            watcher.close();
+            watchThread.join(5_000);
+        }
+    }
+    
+    @Test
+    public void testWatcherRegeneratesEverythingWhenAConfiguredStyleFileChanges() throws Exception {
+        Path inputRoot = Files.createDirectories(tempDir.resolve("styled-tree"));
+        Path styleFile = Files.createDirectories(tempDir.resolve("shared-styles")).resolve("theme.puml");
+        Files.writeString(styleFile, "skinparam monochrome true\n");
+        Path diagram = inputRoot.resolve("styled.puml");
+        Files.writeString(diagram, "@startuml\nAlice -> Bob: Hello\n@enduml");
+        Path stepSource = tempDir.resolve("styled-output").resolve("styled").resolve("step-01-default-step.puml");
+        
+        DiagramWatcher watcher = new DiagramWatcher(inputRoot.toFile(), tempDir.resolve("styled-output").toFile(),
+                GeneratorOptions.defaults().styleFile(styleFile.toFile()));
+        BlockingQueue<List<File>> generations = new LinkedBlockingQueue<>();
+        watcher.setGenerationListener(generations::add);
+        Thread watchThread = startWatching(watcher);
+        try {
+            awaitGeneration(generations, diagram.toFile());
+            assertTrue(Files.readString(stepSource).contains("skinparam monochrome true\n"));
+            
+            Files.writeString(styleFile, "skinparam monochrome false\n");
+            awaitGeneration(generations, diagram.toFile());
+            assertTrue(Files.readString(stepSource).contains("skinparam monochrome false\n"),
+                    "A style file outside the tree should be watched too");
+        } finally {
+            watcher.close();
+            watchThread.join(5_000);
+        }
+    }
+    
+    private static Thread startWatching(DiagramWatcher watcher) {
+        Thread watchThread = new Thread(() -> {
+            try {
+                watcher.run();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        watchThread.start();
+        return watchThread;
+    }
+    
+    /**
+     * Waits for the watcher to report a generation that includes the given diagram.
+     */
+    private static void awaitGeneration(BlockingQueue<List<File>> generations, File diagram) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(20);
+        File expected = diagram.getAbsoluteFile();
+        while (true) {
+            List<File> generated = generations.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            assertNotNull(generated, "Timed out waiting for " + diagram + " to be generated");
+            if (generated.stream().anyMatch(file -> file.getAbsoluteFile().equals(expected))) {
+                return;
+            }
+        }
+    }
+    
     private void verifyStepFileStructure(Path pumlFile) throws IOException {
         String content = Files.readString(pumlFile);
         String[] lines = content.split("\n");
@@ -0,0 +1,173 @@
+package com.example;
+
+import com.google.gson.Gson;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StepDiagramServerTest {
+
+    private static final String SOURCE = "@startuml\n" +
+            "' @step {\"name\": \"Step 1: Hello\", \"newPage\": true}\n" +
+            "Alice -> Bob: Hello\n" +
+            "' @step {\"name\": \"Step 2: Reply\", \"newPage\": false}\n" +
+            "Bob --> Alice: Hi\n" +
+            "@enduml";
+
+    private final HttpClient client = HttpClient.newHttpClient();
+    private StepDiagramServer server;
+
+    @BeforeEach
+    public void startServer() throws IOException {
+        server = new StepDiagramServer(new InetSocketAddress("localhost", 0), GeneratorOptions.defaults(), 1);
+        server.start();
+    }
+
+    @AfterEach
+    public void stopServer() {
+        server.close();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testServesStepListSvgsAndViewer() throws Exception {
+        HttpResponse<String> rendered = post(SOURCE);
+        assertEquals(200, rendered.statusCode(), rendered.body());
+        Map<String, Object> diagram = new Gson().fromJson(rendered.body(), Map.class);
+        String path = "/diagrams/" + diagram.get("id") + "/";
+        assertEquals(path, rendered.headers().firstValue("Location").orElse(null));
+        assertEquals(path + "index.html", diagram.get("viewer"));
+
+        List<Map<String, Object>> steps = (List<Map<String, Object>>) diagram.get("steps");
+        assertEquals(2, steps.size());
+        assertEquals("Step 1: Hello", steps.get(0).get("name"));
+        assertEquals(true, steps.get(0).get("newPage"));
+        assertEquals(path + "step-02-step-2-reply.svg", steps.get(1).get("svg"));
+
+        List<RenderedStep> expected = new StepDiagramGenerator(GeneratorOptions.defaults()).renderSteps(SOURCE);
+        HttpResponse<byte[]> svg = client.send(get((String) steps.get(0).get("svg")), HttpResponse.BodyHandlers.ofByteArray());
+        assertEquals(200, svg.statusCode());
+        assertEquals("image/svg+xml", svg.headers().firstValue("Content-Type").orElse(null));
+        assertArrayEquals(expected.get(0).getSvg(), svg.body());
+
+        HttpResponse<String> viewer = client.send(get(path + "index.html"), HttpResponse.BodyHandlers.ofString());
+        assertEquals(200, viewer.statusCode());
+        assertTrue(viewer.body().contains("step-01-step-1-hello.svg"), "Viewer should list the step SVGs");
+
+        HttpResponse<String> stepList = client.send(get(path + "steps"), HttpResponse.BodyHandlers.ofString());
+        assertEquals(rendered.body(), stepList.body());
+
+        assertEquals(rendered.body(), post(SOURCE).body(), "Identical sources should share a diagram");
+    }
+
+    @Test
+    public void testRejectsUnknownPathsMethodsAndOversizedSources() throws Exception {
+        assertEquals(404, client.send(get("/diagrams/unknown/steps"), HttpResponse.BodyHandlers.discarding()).statusCode());
+        assertEquals(405, client.send(get("/diagrams"), HttpResponse.BodyHandlers.discarding()).statusCode());
+
+        HttpResponse<String> tooLarge = post("x".repeat(StepDiagramServer.MAX_SOURCE_BYTES + 1));
+        assertEquals(413, tooLarge.statusCode());
+
+        String id = (String) new Gson().fromJson(post(SOURCE).body(), Map.class).get("id");
+        assertEquals(404, client.send(get("/diagrams/" + id + "/step-09-missing.svg"), HttpResponse.BodyHandlers.discarding()).statusCode());
+        HttpResponse<Void> redirect = client.send(get("/diagrams/" + id), HttpResponse.BodyHandlers.discarding());
+        assertEquals(301, redirect.statusCode());
+        assertEquals("/diagrams/" + id + "/", redirect.headers().firstValue("Location").orElse(null));
+    }
+
+    @Test
+    public void testRejectsRendersBeyondTheConcurrencyLimit() throws Exception {
+        server.renderPermits.acquire();
+        try {
+            HttpResponse<String> rejected = post(SOURCE);
+            assertEquals(503, rejected.statusCode());
+            assertEquals("1", rejected.headers().firstValue("Retry-After").orElse(null));
+            assertEquals(413, post("x".repeat(StepDiagramServer.MAX_SOURCE_BYTES + 1)).statusCode(),
+                    "A declared oversized body should be refused without waiting for a permit");
+        } finally {
+            server.renderPermits.release();
+        }
+        assertEquals(200, post(SOURCE).statusCode(), "Renders should be admitted again once a permit is free");
+    }
+
+    @Test
+    public void testRefusesSourcesThatReadFilesOrUrls() throws Exception {
+        HttpResponse<String> include = post("@startuml\n!include /etc/passwd\nAlice -> Bob: Hello\n@enduml");
+        assertEquals(403, include.statusCode(), include.body());
+        assertTrue(include.body().contains("!include /etc/passwd") && !include.body().contains("root:"), include.body());
+
+        for (String line : new String[] {"!includeurl http://example.com/x.puml", "  !import lib.zip",
+                "!theme spacelab from /tmp/themes", "Alice -> Bob: <img:http://example.com/a.png>",
+                "sprite $logo http://example.com/logo.png", "!$data = %load_json(\"/etc/hosts\")"}) {
+            assertEquals(403, post("@startuml\n" + line + "\n@enduml").statusCode(), line);
+        }
+        for (String separator : new String[] {"\r", "\r\n"}) {
+            for (String line : new String[] {"!include /etc/passwd", "!theme spacelab from /tmp/themes",
+                    "Alice -> Bob: %getenv(\"HOME\")"}) {
+                String source = "@startuml" + separator + "' @step {\"name\": \"A\"}" + separator
+                        + "Alice -> Bob: x" + separator + line + "\n@enduml";
+                HttpResponse<String> response = post(source);
+                assertEquals(403, response.statusCode(), source);
+                assertFalse(response.body().contains("root:"), response.body());
+            }
+        }
+        assertEquals(200, post("@startuml\nAlice -> Bob: Hello [[http://example.com]]\n@enduml").statusCode(),
+                "Hyperlinks are not fetched and should be allowed");
+    }
+
+    @Test
+    public void testListensOnLoopbackByDefault() throws IOException {
+        assertTrue(StepDiagramServer.bindAddress(null, 0).getAddress().isLoopbackAddress());
+        assertTrue(StepDiagramServer.bindAddress("0.0.0.0", 0).getAddress().isAnyLocalAddress());
+    }
+
+    @Test
+    public void testLimitsCachedDiagramsBySize() throws Exception {
+        String first = (String) new Gson().fromJson(post(SOURCE).body(), Map.class).get("id");
+        long diagramBytes = server.getCachedBytes();
+        assertTrue(diagramBytes > 0 && server.isCached(first));
+        server.close();
+
+        server = new StepDiagramServer(new InetSocketAddress("localhost", 0), GeneratorOptions.defaults(), 1,
+                diagramBytes + diagramBytes / 2);
+        server.start();
+        assertEquals(first, new Gson().fromJson(post(SOURCE).body(), Map.class).get("id"));
+        String second = (String) new Gson().fromJson(post(SOURCE.replace("Hello", "Hallo")).body(), Map.class).get("id");
+        assertFalse(server.isCached(first), "The least recently used diagram should make room");
+        assertTrue(server.isCached(second));
+        assertTrue(server.getCachedBytes() <= diagramBytes + diagramBytes / 2);
+
+        server.close();
+        server = new StepDiagramServer(new InetSocketAddress("localhost", 0), GeneratorOptions.defaults(), 1, 1);
+        server.start();
+        assertEquals(200, post(SOURCE).statusCode(), "A diagram too large to keep should still be served");
+        assertEquals(0, server.getCachedBytes());
+    }
+
+    private HttpResponse<String> post(String source) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(uri("/diagrams"))
+                .POST(HttpRequest.BodyPublishers.ofString(source, StandardCharsets.UTF_8))
+                .build();
+        return client.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private HttpRequest get(String path) {
+        return HttpRequest.newBuilder(uri(path)).GET().build();
+    }
+
+    private URI uri(String path) {
+        return URI.create("http://localhost:" + server.getPort() + path);
+    }
+}
@@ -1,15 +1,26 @@
 package com.example;
 
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 
 public class StepParserTest {
 
@@ -104,6 +115,53 @@ public class StepParserTest {
         assertTrue(defaultStep.getContent().contains("User -> System: Submit Credentials"));
     }
 
+    @Test
+    public void testParseFileFindsTheStepsOfEveryShapeOfSource() throws IOException {
+        // The default step is collected until the first marker, and dropped once one is seen
+        assertSteps("' @step {\"name\": \"A\"}\nAlice -> Bob\n", "A", List.of("Alice -> Bob"));
+        assertSteps("@startuml\nactor Alice\nAlice -> Bob: early\n' @step {\"name\": \"Last\"}\n@enduml",
+                "Last", List.of("actor Alice"));
+        assertSteps("@startuml\n' @stepping\nA -> B\n@enduml", "Default Step", List.of("' @stepping", "A -> B"));
+        assertSteps("", "Default Step", List.of());
+    }
+
+    @Test
+    public void testParseFileReadsTheFileOnce() throws Exception {
+        // A named pipe can only be read once, so a second pass would wait for a writer that never comes
+        Path pipe = tempDir.resolve("steps.puml");
+        try {
+            assumeTrue(new ProcessBuilder("mkfifo", pipe.toString()).start().waitFor() == 0);
+        } catch (IOException e) {
+            assumeTrue(false, "mkfifo is not available");
+        }
+
+        for (String source : new String[] {
+                "@startuml\n' @step {\"name\": \"A\"}\nAlice -> Bob\n' @step {\"name\": \"B\"}\nBob -> Alice\n@enduml",
+                "@startuml\nAlice -> Bob\n@enduml"}) {
+            Thread writer = new Thread(() -> {
+                try {
+                    Files.writeString(pipe, source);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            writer.setDaemon(true);
+            writer.start();
+            List<Step> steps = assertTimeoutPreemptively(Duration.ofSeconds(20), () -> new StepParser().parseFile(pipe.toFile()));
+            assertEquals(new StepParser().parseString(source).size(), steps.size(), source);
+            writer.join(5_000);
+        }
+    }
+
+    private void assertSteps(String source, String name, List<String> content) throws IOException {
+        File file = tempDir.resolve("shape.puml").toFile();
+        Files.writeString(file.toPath(), source);
+        List<Step> steps = new StepParser().parseFile(file);
+        assertEquals(1, steps.size(), source);
+        assertEquals(name, steps.get(0).getName(), source);
+        assertEquals(content, steps.get(0).getContent(), source);
+    }
+
     @Test
     public void testGeneratedStepFilesStructure() throws IOException {
         // Create a test PlantUML file with step markers, participants, and includes
@@ -185,4 +243,192 @@ public class StepParserTest {
             }
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testCumulativeStepsShareInheritedContent() throws IOException {
+        String pumlContent = "@startuml\n" +
+                "!import lib.puml\n" +
+                "actor User\n" +
+                "participant System\n\n" +
+                "' @step {\"name\": \"A\", \"newPage\": false}\n" +
+                "User -> System: one\n" +
+                "' @step {\"name\": \"B\", \"newPage\": false}\n" +
+                "System --> User: two\n" +
+                "' @step {\"name\": \"C\", \"newPage\": false}\n" +
+                "User -> System: three\n" +
+                "' @step {\"name\": \"D\", \"newPage\": true}\n" +
+                "User -> System: four\n" +
+                "' @step {\"name\": \"E\", \"newPage\": false}\n" +
+                "System --> User: five\n" +
+                "@enduml";
+
+        File tempFile = tempDir.resolve("cumulative.puml").toFile();
+        try (FileWriter writer = new FileWriter(tempFile)) {
+            writer.write(pumlContent);
+        }
+
+        List<Step> steps = new StepParser().parseFile(tempFile);
+        assertEquals(5, steps.size());
+
+        // Each continuing step repeats the header and participants, then the previous step's
+        // content without its participant declarations, then its own lines
+        assertEquals(List.of("!import lib.puml", "actor User", "participant System",
+                "User -> System: one"), steps.get(0).getContent());
+        assertEquals(List.of("!import lib.puml", "actor User", "participant System",
+                "!import lib.puml", "User -> System: one",
+                "System --> User: two"), steps.get(1).getContent());
+        assertEquals(List.of("!import lib.puml", "actor User", "participant System",
+                "!import lib.puml", "!import lib.puml", "User -> System: one", "System --> User: two",
+                "User -> System: three"), steps.get(2).getContent());
+        assertEquals(List.of("!import lib.puml", "actor User", "participant System",
+                "User -> System: four"), steps.get(3).getContent());
+        assertEquals(List.of("!import lib.puml", "actor User", "participant System",
+                "!import lib.puml", "User -> System: four",
+                "System --> User: five"), steps.get(4).getContent());
+
+        Step step3 = steps.get(2);
+        assertEquals(8, step3.getContent().size());
+        assertEquals("User -> System: one", step3.getContent().get(5));
+        assertTrue(step3.generatePlantUML().endsWith("User -> System: one\nSystem --> User: two\nUser -> System: three\n"));
+    }
+
+    @Test
+    public void testLongCumulativeChain() throws IOException {
+        StringBuilder pumlContent = new StringBuilder("@startuml\nactor User\nparticipant System\n");
+        int stepCount = 2000;
+        for (int i = 1; i <= stepCount; i++) {
+            pumlContent.append("' @step {\"name\": \"Step ").append(i).append("\", \"newPage\": false}\n")
+                    .append("User -> System: message ").append(i).append("\n");
+        }
+        pumlContent.append("@enduml");
+
+        List<Step> steps = new StepParser().parseString(pumlContent.toString());
+        assertEquals(stepCount, steps.size());
+
+        Step last = steps.get(stepCount - 1);
+        List<String> content = last.getContent();
+        assertEquals(2 + stepCount, content.size(), "Participants followed by every message");
+        assertEquals("User -> System: message 1", content.get(2));
+        assertEquals("User -> System: message " + stepCount, content.get(content.size() - 1));
+
+        int lines = 0;
+        for (String line : content) {
+            lines++;
+        }
+        assertEquals(content.size(), lines, "Iteration should visit every line once");
+
+        // Indexed access reads a copy taken on the first access, in iteration order
+        List<String> iterated = new ArrayList<>(content);
+        for (int i = 0; i < content.size(); i++) {
+            assertEquals(iterated.get(i), content.get(i));
+        }
+        assertEquals(iterated, last.getContent(), "A new view should list the same lines");
+    }
+
+    @Test
+    public void testStreamedStepsMatchParsedSteps() throws IOException {
+        String pumlContent = "@startuml\n" +
+                "actor User\n" +
+                "' @step {\"name\": \"A\", \"newPage\": false}\n" +
+                "User -> System: one\n" +
+                "' @step {\"name\": \"B\", \"newPage\": false}\n" +
+                "System --> User: two\n" +
+                "' @step {\"name\": \"C\", \"newPage\": true}\n" +
+                "User -> System: three\n" +
+                "@enduml";
+
+        List<Step> parsed = new StepParser().parseString(pumlContent);
+        List<Step> streamed;
+        try (Stream<Step> steps = new StepParser().streamString(pumlContent)) {
+            streamed = steps.collect(Collectors.toList());
+        }
+        assertEquals(parsed.size(), streamed.size());
+        for (int i = 0; i < parsed.size(); i++) {
+            assertEquals(parsed.get(i).getName(), streamed.get(i).getName());
+            assertEquals(parsed.get(i).generatePlantUML(), streamed.get(i).generatePlantUML());
+        }
+
+        try (Stream<Step> steps = new StepParser().streamString("@startuml\nA -> B\n@enduml")) {
+            List<Step> defaultSteps = steps.collect(Collectors.toList());
+            assertEquals(1, defaultSteps.size(), "A source without markers should stream its default step");
+            assertEquals("Default Step", defaultSteps.get(0).getName());
+        }
+    }
+
+    @Test
+    public void testBuilderEmitsStepWhenNextStepStarts() {
+        List<Step> completed = new ArrayList<>();
+        StepBuilder builder = new StepBuilder(completed::add);
+        builder.addDeclaration("actor User");
+
+        builder.startNewStep(new StepMetadata("A", false, new HashMap<>()));
+        builder.addContent("User -> System: one");
+        assertTrue(completed.isEmpty(), "A step is not complete while lines may still be added");
+
+        builder.startNewStep(new StepMetadata("B", false, new HashMap<>()));
+        assertEquals(1, completed.size(), "Starting a step completes the previous one");
+        builder.addContent("System --> User: two");
+
+        builder.finish();
+        assertEquals(2, completed.size());
+        assertTrue(completed.get(1).getContent().contains("User -> System: one"),
+                "A continuing step should still inherit content from an emitted step");
+        assertTrue(builder.build().isEmpty(), "A streaming builder should not retain its steps");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testMetadataMatchesGsonMapParsing() {
+        String[] markers = {
+                "{\"name\": \"Login\", \"newPage\": true}",
+                "{\"newPage\": false, \"name\": \"Caf\\u00e9 \\\"quoted\\\"\"}",
+                "{\"name\": \"A\", \"newPage\": \"TRUE\", \"owner\": {\"team\": [1, 2.5, null]}, \"weight\": 3}",
+                "{}",
+                "{\"name\": 42}",
+                "{\"name\": {\"nested\": true}}",
+                "{\"newPage\": 1}",
+                "{\"name\": \"A\", \"name\": \"B\"}",
+                "{\"x\": 1, \"x\": 2, \"name\": \"A\"}",
+                "{name: 'Lenient', newPage: true}",
+                "{\"name\": \"A\"} {\"name\": \"B\"}",
+                "{\"name\": \"A\", }",
+                "{\"name\": \"A\" // comment }",
+                "{not json}",
+                "{ \"newPage\" :\ttrue ,  \"name\":\"Spaced\" }",
+                "{\"name\": \"A\", \"newPage\": truex}",
+                "{\"name\": \"A\", \"newPage\": \"yes\"}",
+                "{\"name\": \"A\"} x}",
+                // Escapes and numbers are never decoded by the flat reader, only by Gson
+                "{\"na\\u006De\": \"Escaped key\", \"newPage\": true}",
+                "{\"name\": \"Tab\\tand \\/slash \\\\ back\", \"newPage\": false}",
+                "{\"name\": \"Emoji \\ud83d\\ude00\"}",
+                "{\"name\": \"Raw\ttab\"}",
+                "{\"name\": \"A\", \"newPage\": 0}",
+                "{\"name\": \"A\", \"newPage\": null}",
+                "{\"name\": null, \"newPage\": true}",
+                "{\"name\": \"A\", \"newPage\": \"True\", \"weight\": 1e2, \"offset\": -0.0}",
+                "{\"Name\": \"Case\", \"NEWPAGE\": true}",
+                "{\"name\": \"A\", \"newPage\": true, \"newPage\": false}"
+        };
+
+        StepMetadataExtractor extractor = new StepMetadataExtractor();
+        Gson gson = new Gson();
+        for (String json : markers) {
+            Map<String, Object> expected;
+            try {
+                expected = gson.fromJson(json, Map.class);
+            } catch (JsonParseException e) {
+                expected = new HashMap<>();
+            }
+            String expectedName = expected.get("name") != null ? expected.get("name").toString() : "Unnamed Step";
+            boolean expectedNewPage = expected.get("newPage") != null
+                    && Boolean.parseBoolean(expected.get("newPage").toString());
+
+            StepMetadata metadata = extractor.extractMetadata("' @step " + json);
+            assertEquals(expectedName, metadata.getName(), json);
+            assertEquals(expectedNewPage, metadata.isNewPage(), json);
+            assertEquals(expected, metadata.getAttributes(), json);
+            assertSame(metadata.getAttributes(), metadata.getAttributes(), "Attributes should be parsed once");
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.example;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StyleContextTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void testStyleIsPreprocessedOnce() throws IOException {
+        Path styleFile = tempDir.resolve("style.puml");
+        Files.writeString(styleFile, "@startuml style\n' Colors\n!define MAIN #2C3E50\n\nskinparam sequence {\n    ArrowColor MAIN\n}\n@enduml\n");
+
+        StyleContext style = StyleContext.load(styleFile.toFile());
+        assertEquals("!define MAIN #2C3E50\nskinparam sequence {\n    ArrowColor MAIN\n}", style.getContent());
+        assertEquals("@startuml\n" + style.getContent() + "\n", style.getHeader());
+        assertTrue(style.isCurrent());
+
+        Files.writeString(styleFile, "skinparam shadowing false\n");
+        assertFalse(style.isCurrent(), "A changed file should invalidate the context");
+        assertSame(StyleContext.NONE, StyleContext.of("@startuml\n' nothing\n@enduml"));
+    }
+
+    @Test
+    public void testBlockCommentsAreLeftOutWhole() throws IOException {
+        String style = "@startuml\n/'\n  Colors used by every diagram\n'/\nskinparam shadowing false\n"
+                + "/' one line '/\n/' starts here\n' still inside\n  '/\nskinparam monochrome true\n@enduml\n";
+
+        assertEquals("skinparam shadowing false\nskinparam monochrome true", StyleContext.preprocess(style));
+
+        Path styleFile = tempDir.resolve("commented.puml");
+        Files.writeString(styleFile, style);
+        File input = tempDir.resolve("diagram.puml").toFile();
+        Files.writeString(input.toPath(), "@startuml\nAlice -> Bob: Hello\n@enduml");
+        Path output = tempDir.resolve("diagram");
+        new StepDiagramGenerator(GeneratorOptions.defaults().styleFile(styleFile.toFile())).generate(input, output.toFile());
+        assertTrue(Files.readString(output.resolve("step-01-default-step.svg")).contains(">Hello</text>"),
+                "The step content should not be swallowed by an open comment");
+    }
+
+    @Test
+    public void testGeneratorUsesConfiguredStyleAndPicksUpChanges() throws IOException {
+        Path styleFile = tempDir.resolve("styles/custom.puml");
+        Files.createDirectories(styleFile.getParent());
+        Files.writeString(styleFile, "@startuml\nskinparam shadowing false\n@enduml\n");
+        File input = tempDir.resolve("styled.puml").toFile();
+        Files.writeString(input.toPath(), "@startuml\n' @step {\"name\": \"Step 1\", \"newPage\": true}\nAlice -> Bob: Hello\n@enduml");
+        Path output = tempDir.resolve("styled");
+        Path stepSource = output.resolve("step-01-step-1.puml");
+
+        StepDiagramGenerator generator = new StepDiagramGenerator(GeneratorOptions.defaults().styleFile(styleFile.toFile()));
+        generator.generate(input, output.toFile());
+        assertTrue(Files.readString(stepSource).startsWith("@startuml\nskinparam shadowing false\ntitle Step 1\n"),
+                Files.readString(stepSource));
+
+        Files.writeString(styleFile, "skinparam monochrome true\n");
+        styleFile.toFile().setLastModified(styleFile.toFile().lastModified() + 2000);
+        generator.generate(input, output.toFile());
+        assertTrue(Files.readString(stepSource).startsWith("@startuml\nskinparam monochrome true\ntitle Step 1\n"),
+                "A changed style should be read again");
+    }
+}
@@ -0,0 +1,88 @@
+package com.example;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SvgExporterTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void testExportsPngPdfAndThumbnailOfEachSvg() throws IOException {
+        File input = tempDir.resolve("exported.puml").toFile();
+        Files.writeString(input.toPath(), "@startuml\n" +
+                "' @step {\"name\": \"Step 1\", \"newPage\": true}\n" +
+                "Alice -> Bob: Hello\n" +
+                "' @step {\"name\": \"Step 2\", \"newPage\": false}\n" +
+                "Bob --> Alice: Hi\n" +
+                "@enduml");
+        Path output = tempDir.resolve("exported");
+        GeneratorOptions options = GeneratorOptions.defaults()
+                .exportFormats(EnumSet.of(GeneratorOptions.ExportFormat.PNG, GeneratorOptions.ExportFormat.PDF))
+                .exportDpi(192)
+                .thumbnailWidth(50)
+                .exportThreads(2);
+        new StepDiagramGenerator(options).generate(input, output.toFile());
+
+        for (String name : new String[] {"step-01-step-1", "step-02-step-2", "summary"}) {
+            Matcher width = Pattern.compile("width=\"(\\d+)px\"").matcher(Files.readString(output.resolve(name + ".svg")));
+            assertTrue(width.find());
+
+            BufferedImage png = ImageIO.read(output.resolve(name + ".png").toFile());
+            assertEquals(2 * Integer.parseInt(width.group(1)), png.getWidth(), "192 DPI doubles the SVG's size");
+            BufferedImage thumbnail = ImageIO.read(output.resolve(name + ".thumb.png").toFile());
+            assertEquals(50, thumbnail.getWidth());
+            assertEquals(png.getHeight() / (double) png.getWidth(), thumbnail.getHeight() / 50.0, 0.05,
+                    "Thumbnails should keep the aspect ratio");
+
+            String pdf = new String(Files.readAllBytes(output.resolve(name + ".pdf")), 0, 8, StandardCharsets.ISO_8859_1);
+            assertTrue(pdf.startsWith("%PDF-"), pdf);
+        }
+    }
+
+    @Test
+    public void testOnlyAFewSvgsAreQueuedAtOnce() throws IOException {
+        byte[] svg = ("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"20px\" height=\"10px\">"
+                + "<rect width=\"20\" height=\"10\" fill=\"red\"/></svg>").getBytes(StandardCharsets.UTF_8);
+        GeneratorOptions options = GeneratorOptions.defaults()
+                .exportFormats(EnumSet.of(GeneratorOptions.ExportFormat.PNG))
+                .exportThreads(1);
+        try (SvgExporter exporter = new SvgExporter(options, 2)) {
+            for (int i = 0; i < 20; i++) {
+                exporter.submit(tempDir.resolve("step-" + i + ".svg").toFile(), svg, 0);
+                assertTrue(exporter.getQueuedSvgs() <= 2, "Queued SVGs: " + exporter.getQueuedSvgs());
+                assertTrue(exporter.getPendingExports() <= 4, "Exports written should be let go: " + exporter.getPendingExports());
+            }
+            exporter.submit(tempDir.resolve("broken.svg").toFile(), "<svg".getBytes(StandardCharsets.UTF_8), 0);
+            assertThrows(IOException.class, exporter::awaitAll, "The failed export should be rethrown");
+            assertEquals(0, exporter.getQueuedSvgs());
+        }
+        for (int i = 0; i < 20; i++) {
+            assertEquals(20, ImageIO.read(tempDir.resolve("step-" + i + ".png").toFile()).getWidth());
+        }
+    }
+
+    @Test
+    public void testNothingIsExportedByDefault() throws IOException {
+        File input = tempDir.resolve("plain.puml").toFile();
+        Files.writeString(input.toPath(), "@startuml\n' @step {\"name\": \"Step 1\", \"newPage\": true}\nAlice -> Bob: Hello\n@enduml");
+        Path output = tempDir.resolve("plain");
+        new StepDiagramGenerator(GeneratorOptions.defaults()).generate(input, output.toFile());
+
+        assertFalse(Files.list(output).anyMatch(path -> path.toString().endsWith(".png") || path.toString().endsWith(".pdf")));
+    }
+}
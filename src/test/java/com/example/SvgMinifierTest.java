@@ -0,0 +1,105 @@
+package com.example;
+
+import net.sourceforge.plantuml.FileFormat;
+import net.sourceforge.plantuml.FileFormatOption;
+import net.sourceforge.plantuml.SourceStringReader;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SvgMinifierTest {
+
+    @TempDir
+    Path tempDir;
+
+    private static final String SHADED = "@startuml\n" +
+            "skinparam shadowing true\n" +
+            "skinparam participantBackgroundColor #FFFFFF/#ADD8E6\n" +
+            "participant Alice\n" +
+            "Alice -> Bob: Hello [[http://example.com]]\n" +
+            "note left: a note\n" +
+            "@enduml";
+
+    @Test
+    public void testUnchangedDrawingsMinifyToIdenticalBytes() throws IOException {
+        byte[] svg = render(SHADED);
+        byte[] commented = render(SHADED.replace("participant Alice\n", "participant Alice\n' only a comment\n"));
+        assertFalse(Arrays.equals(svg, commented), "PlantUML output depends on the whole source");
+
+        assertArrayEquals(SvgMinifier.minify(svg), SvgMinifier.minify(commented));
+        assertTrue(SvgMinifier.minify(svg).length < svg.length);
+    }
+
+    @Test
+    public void testRenderingTwiceMinifiesToIdenticalBytes() throws IOException {
+        for (String source : new String[] {SHADED, "@startuml\nAlice -> Bob: Hello\nnot a message(\n@enduml"}) {
+            byte[] first = SvgMinifier.minify(render(source));
+            byte[] second = SvgMinifier.minify(render(source));
+            assertArrayEquals(first, second, new String(first, StandardCharsets.UTF_8));
+        }
+        String error = new String(render("@startuml\nnot a message(\n@enduml"), StandardCharsets.UTF_8);
+        assertTrue(error.contains("height=\"1\""), "Error images should have the random dot: " + error);
+        assertFalse(new String(SvgMinifier.minify(error.getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8)
+                .contains("height=\"1\""));
+    }
+
+    @Test
+    public void testMinifiedSvgKeepsItsReferences() throws IOException {
+        String minified = new String(SvgMinifier.minify(render(SHADED)), StandardCharsets.UTF_8);
+
+        assertTrue(minified.startsWith("<svg "), minified);
+        assertFalse(minified.contains("<!--") || minified.contains("<?") || minified.contains("lengthAdjust"), minified);
+        assertTrue(minified.contains(" id=\"i0\"") && minified.contains("url(#i0)"), minified);
+        assertTrue(minified.contains(" id=\"i1\"") && minified.contains("url(#i1)"), minified);
+        assertTrue(minified.contains("href=\"http://example.com\""), "Links should be kept");
+        assertTrue(minified.contains(">Hello</text>") && minified.contains(">a note</text>"), minified);
+    }
+
+    @Test
+    public void testMinifyLeavesTextAndOtherAnchorsAlone() {
+        String svg = "<?xml version=\"1.0\"?>\n<svg id=\"root\">\n  <!-- note -->\n"
+                + "  <a href=\"#elsewhere\"><text lengthAdjust=\"spacing\" x=\"1\"> a &gt; b </text></a>\n"
+                + "  <use xlink:href=\"#root\"/>\n<defs/></svg>\n";
+
+        assertEquals("<svg id=\"i0\"><a href=\"#elsewhere\"><text x=\"1\"> a &gt; b </text></a>"
+                        + "<use xlink:href=\"#i0\"/></svg>",
+                new String(SvgMinifier.minify(svg.getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testLinksToLaterElementsAreRenamed() {
+        String svg = "<svg><a xlink:href=\"#later\"><text>Go</text></a><a href=\"#missing\"/>"
+                + "<g id=\"first\"/><g id=\"later\" fill=\"url(#first)\"/></svg>";
+
+        assertEquals("<svg><a xlink:href=\"#i0\"><text>Go</text></a><a href=\"#missing\"/>"
+                        + "<g id=\"i1\"/><g id=\"i0\" fill=\"url(#i1)\"/></svg>",
+                new String(SvgMinifier.minify(svg.getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testGeneratorWritesMinifiedSvgs() throws IOException {
+        File input = tempDir.resolve("minified.puml").toFile();
+        Files.writeString(input.toPath(), "@startuml\n' @step {\"name\": \"Step 1\", \"newPage\": true}\nAlice -> Bob: Hello\n@enduml");
+        Path output = tempDir.resolve("minified");
+        new StepDiagramGenerator(GeneratorOptions.defaults().minifySvg(true)).generate(input, output.toFile());
+
+        String svg = Files.readString(output.resolve("step-01-step-1.svg"));
+        assertTrue(svg.startsWith("<svg ") && svg.contains(">Hello</text>"), svg);
+        assertFalse(svg.contains("<!--SRC="), "The embedded source should be left out");
+    }
+
+    private static byte[] render(String source) throws IOException {
+        ByteArrayOutputStream svg = new ByteArrayOutputStream();
+        new SourceStringReader(source).outputImage(svg, new FileFormatOption(FileFormat.SVG));
+        return svg.toByteArray();
+    }
+}